@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+import java.io.Serializable;
+
+/**
+ * A cached value together with when it expires and how long it took to load,
+ * which is what early refresh needs to decide when to reload it.
+ */
+class CacheEntry<T> implements Serializable {
+	private static final long serialVersionUID = 6118504342761528630L;
+	private final T value;
+	private final long expiresAt;
+	private final long loadMillis;
+
+	CacheEntry(T value, long expiresAt, long loadMillis) {
+		this.value = value;
+		this.expiresAt = expiresAt;
+		this.loadMillis = loadMillis;
+	}
+
+	T getValue() {
+		return value;
+	}
+
+	long getExpiresAt() {
+		return expiresAt;
+	}
+
+	long getLoadMillis() {
+		return loadMillis;
+	}
+
+	/**
+	 * Probabilistic early expiration ("XFetch"): the closer the entry is to
+	 * expiring, and the longer it takes to load, the more likely a reader is
+	 * picked to refresh it ahead of time. Readers are picked at random, so
+	 * refreshes are spread out instead of all readers missing at the TTL.
+	 */
+	boolean shouldRefreshEarly(long now, double beta) {
+		return now - loadMillis * beta * Math.log(Math.random()) >= expiresAt;
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+import java.util.concurrent.Callable;
+
+/**
+ * One key to look up with {@link CacheTemplate#getAll(CacheRequest...)}:
+ * the same arguments as {@link CacheTemplate#get}, and the value once it has
+ * been looked up.
+ */
+public class CacheRequest<T> {
+	private final String cacheName;
+	private final String key;
+	private final int ttlSeconds;
+	private final Callable<T> loader;
+	private volatile T value;
+
+	public CacheRequest(String cacheName, String key, int ttlSeconds, Callable<T> loader) {
+		this.cacheName = cacheName;
+		this.key = key;
+		this.ttlSeconds = ttlSeconds;
+		this.loader = loader;
+	}
+
+	public String getCacheName() {
+		return cacheName;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public int getTtlSeconds() {
+		return ttlSeconds;
+	}
+
+	public Callable<T> getLoader() {
+		return loader;
+	}
+
+	public T getValue() {
+		return value;
+	}
+
+	void setValue(T value) {
+		this.value = value;
+	}
+}
@@ -0,0 +1,729 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.CASValue;
+import net.spy.memcached.MemcachedClient;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amediamanager.config.ConfigurationSettings;
+import com.amediamanager.dao.VideoPage;
+import com.amediamanager.metrics.MetricBatcher;
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AtomicLongMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Two-tier read-through cache. A small in-process near cache (L1) with a
+ * short TTL sits in front of memcached (L2), so hot keys are served without
+ * a network round trip or deserialization. Keys deleted or updated through
+ * this class are dropped from every instance's near cache through the
+ * {@link InvalidationChannel}; the TTL bounds staleness if a message is lost.
+ * Values handed out are shared between requests and must not be modified.
+ * <p>
+ * Misses are protected from cache stampedes when a popular key expires or is
+ * invalidated:
+ * <ul>
+ * <li>concurrent misses for the same key on one node share a single load;</li>
+ * <li>across nodes, the loader must hold a short-lived lease key (taken with
+ * memcached add); other nodes serve the old value if there is one, or wait
+ * briefly for the new one instead of loading too;</li>
+ * <li>entries are refreshed early with a probability that grows as they near
+ * expiry, so a hot key is usually reloaded by one reader before it expires.</li>
+ * </ul>
+ * memcached calls the page waits on are made asynchronously and abandoned
+ * after CACHE_TIMEOUT_MILLIS, in which case the value is loaded from the
+ * database. A circuit breaker stops using memcached for a few seconds after
+ * repeated timeouts or errors, so a slow or lost node doesn't add its timeout
+ * to every request.
+ * <p>
+ * Hits and hit ratios per tier, misses, loads, the duplicate loads avoided
+ * and timeouts are published to CloudWatch per cache name every minute;
+ * memcached latency is published per call.
+ */
+@Component
+public class CacheTemplate {
+	private static final Logger LOG = LoggerFactory.getLogger(CacheTemplate.class);
+
+	/** How long a node may hold the lease for loading a key */
+	private static final int LEASE_SECONDS = 10;
+	/**
+	 * How long a node without the lease and without an old value to serve
+	 * holds the request waiting for the holder's value, and how often it
+	 * checks. Kept to a small part of a page's time; after that the node
+	 * loads the value itself.
+	 */
+	private static final long LEASE_WAIT_MILLIS = 100;
+	private static final long LEASE_POLL_MILLIS = 20;
+	/** Early refresh eagerness; values above 1 refresh earlier */
+	private static final double EARLY_REFRESH_BETA = 1.0;
+	private static final int MAX_CAS_ATTEMPTS = 3;
+	/** Near cache bounds: roughly the number of videos/tags held, and TTL */
+	private static final long NEAR_CACHE_MAX_WEIGHT = 20000;
+	private static final int NEAR_CACHE_TTL_SECONDS = 5;
+	/** Generation numbers held locally: about one per active user, and how long an unused one is kept */
+	private static final long GENERATIONS_MAX_SIZE = 10000;
+	private static final int GENERATIONS_IDLE_SECONDS = 600;
+	/** Used when CACHE_TIMEOUT_MILLIS is not set */
+	private static final long DEFAULT_TIMEOUT_MILLIS = 50;
+	/** Consecutive failures that open the circuit, and for how long */
+	private static final int BREAKER_FAILURE_THRESHOLD = 5;
+	private static final long BREAKER_OPEN_MILLIS = 10000;
+	/** Threads for loading the misses of a getAll in parallel */
+	private static final int LOADER_THREADS = 16;
+
+	@Autowired
+	protected MemcachedClient memcachedClient;
+
+	@Autowired
+	protected ConfigurationSettings config;
+
+	@Autowired
+	protected MetricBatcher metricBatcher;
+
+	@Autowired
+	protected InvalidationChannel invalidationChannel;
+
+	private final Cache<String, CacheEntry<?>> nearCache = CacheBuilder.newBuilder()
+			.maximumWeight(NEAR_CACHE_MAX_WEIGHT)
+			.weigher(new Weigher<String, CacheEntry<?>>() {
+				@Override
+				public int weigh(String key, CacheEntry<?> entry) {
+					return 1 + sizeOf(entry.getValue());
+				}
+			})
+			.expireAfterWrite(NEAR_CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+			.build();
+
+	/** Generation numbers by key; see {@link #getGeneration(String)} */
+	private final LoadingCache<String, String> generations = CacheBuilder.newBuilder()
+			.maximumSize(GENERATIONS_MAX_SIZE)
+			.refreshAfterWrite(NEAR_CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+			.expireAfterAccess(GENERATIONS_IDLE_SECONDS, TimeUnit.SECONDS)
+			.build(new CacheLoader<String, String>() {
+				@Override
+				public String load(String generationKey) throws CacheUnavailableException {
+					return readGeneration(generationKey);
+				}
+
+				@Override
+				public ListenableFuture<String> reload(final String generationKey, final String generation) {
+					ListenableFutureTask<String> refresh = ListenableFutureTask.create(new Callable<String>() {
+						@Override
+						public String call() {
+							try {
+								return readGeneration(generationKey);
+							} catch (CacheUnavailableException e) {
+								// Keep serving the one we have
+								return generation;
+							}
+						}
+					});
+					loaders.execute(refresh);
+					return refresh;
+				}
+			});
+
+	private final String nodeId = UUID.randomUUID().toString();
+	private final ConcurrentMap<String, FutureTask<Object>> inFlight = new ConcurrentHashMap<String, FutureTask<Object>>();
+	private final AtomicLongMap<String> counters = AtomicLongMap.create();
+	private final CircuitBreaker breaker = new CircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_MILLIS);
+	/** Loads getAll misses in parallel; runs them on the caller when all threads are busy */
+	private final ExecutorService loaders = new ThreadPoolExecutor(0, LOADER_THREADS, 60, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(),
+			new ThreadFactoryBuilder().setNameFormat("cache-loader-%d").setDaemon(true).build(),
+			new ThreadPoolExecutor.CallerRunsPolicy());
+
+	@PostConstruct
+	public void subscribe() {
+		invalidationChannel.subscribe(new InvalidationChannel.Listener() {
+			@Override
+			public void invalidate(String key) {
+				nearCache.invalidate(key);
+				generations.invalidate(key);
+			}
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		loaders.shutdown();
+	}
+
+	/**
+	 * Return the cached value for the key, or load, cache and return it.
+	 * With caching disabled this just calls the loader.
+	 * @param cacheName what is being cached, used for logging and metrics
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(String cacheName, String key, int ttlSeconds, Callable<T> loader) {
+		if (!isEnabled()) {
+			return call(loader);
+		}
+
+		CacheEntry<T> local = (CacheEntry<T>) nearCache.getIfPresent(key);
+		if (local != null) {
+			count(cacheName, "L1Hits");
+			return local.getValue();
+		}
+
+		CacheEntry<T> entry = read(cacheName, key);
+		if (isUsable(cacheName, key, entry)) {
+			return entry.getValue();
+		}
+		return load(cacheName, key, ttlSeconds, loader, entry);
+	}
+
+	public <T> T get(CacheRequest<T> request) {
+		return get(request.getCacheName(), request.getKey(), request.getTtlSeconds(), request.getLoader());
+	}
+
+	/**
+	 * {@link #get} for several keys at once. Keys that aren't in the near
+	 * cache are fetched from memcached in one getBulk round trip, and the
+	 * misses are loaded in parallel. Each request's value is set on return.
+	 */
+	public void getAll(CacheRequest<?>... requests) {
+		final boolean enabled = isEnabled();
+		List<CacheRequest<?>> remote = new ArrayList<CacheRequest<?>>();
+		for (CacheRequest<?> request : requests) {
+			if (!enabled || !readLocal(request)) {
+				remote.add(request);
+			}
+		}
+
+		Map<String, Object> cached = enabled ? readAll(remote) : Collections.<String, Object>emptyMap();
+		List<Runnable> loads = new ArrayList<Runnable>();
+		for (final CacheRequest<?> request : remote) {
+			final Object value = cached.get(request.getKey());
+			if (!enabled || !readRemote(request, value)) {
+				loads.add(new Runnable() {
+					@Override
+					public void run() {
+						fill(request, value);
+					}
+				});
+			}
+		}
+
+		// Load the misses on the loader pool, and the last one on this thread
+		List<Future<?>> pending = new ArrayList<Future<?>>();
+		for (int i = 0; i < loads.size() - 1; i++) {
+			pending.add(loaders.submit(loads.get(i)));
+		}
+		if (!loads.isEmpty()) {
+			loads.get(loads.size() - 1).run();
+		}
+		for (Future<?> load : pending) {
+			await(load);
+		}
+	}
+
+	/**
+	 * Patch a cached value in place with gets/cas, retrying a few times on
+	 * conflict. Whatever the outcome, the key is dropped from every
+	 * instance's near cache (this one keeps the patched value).
+	 * @param mutation returns the new value, or null if it can't be patched
+	 * @return false if the caller must invalidate the value instead; true if
+	 *         it was patched or isn't cached
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> boolean update(String cacheName, String key, int ttlSeconds, Function<T, T> mutation) {
+		if (!isEnabled()) {
+			return true;
+		}
+		try {
+			for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS && breaker.allowRequest(); attempt++) {
+				CASValue<Object> cached = awaitCache(cacheName, "Gets", memcachedClient.asyncGets(key));
+				if (cached == null || !(cached.getValue() instanceof CacheEntry)) {
+					// Nothing to patch; the next read loads it from the database
+					invalidateNearCaches(key);
+					return true;
+				}
+				CacheEntry<T> entry = (CacheEntry<T>) cached.getValue();
+				T updated = mutation.apply(entry.getValue());
+				if (updated == null) {
+					break;
+				}
+				CacheEntry<T> updatedEntry = new CacheEntry<T>(updated, expiresAt(ttlSeconds), entry.getLoadMillis());
+				CASResponse response = awaitCache(cacheName, "Cas", memcachedClient.asyncCAS(
+						key, cached.getCas(), ttlSeconds, updatedEntry, memcachedClient.getTranscoder()));
+				if (response == CASResponse.OK) {
+					count(cacheName, "WriteThroughs");
+					nearCache.put(key, updatedEntry);
+					invalidationChannel.publish(key);
+					return true;
+				}
+				if (response == CASResponse.NOT_FOUND) {
+					invalidateNearCaches(key);
+					return true;
+				}
+			}
+		} catch (CacheUnavailableException e) {
+			// Fall through to invalidation
+		}
+		invalidateNearCaches(key);
+		count(cacheName, "WriteThroughFailures");
+		return false;
+	}
+
+	public void delete(String key) {
+		if (isEnabled()) {
+			memcachedClient.delete(key);
+			invalidateNearCaches(key);
+		}
+	}
+
+	/**
+	 * Read a generation number, for keys that embed one so they can all be
+	 * retired at once by {@link #incrementGeneration(String)}.
+	 * <p>
+	 * Only the first read of a generation on this node waits for memcached.
+	 * After that the local copy is served, and refreshed in the background
+	 * once it is NEAR_CACHE_TTL_SECONDS old, so a page read doesn't spend a
+	 * round trip on the generation before the one for the page. Increments
+	 * made through any instance drop the local copy right away.
+	 */
+	public String getGeneration(String generationKey) {
+		try {
+			return generations.get(generationKey);
+		} catch (ExecutionException e) {
+			// A throwaway generation; whatever is cached under it is a miss
+			return String.valueOf(System.currentTimeMillis());
+		} catch (UncheckedExecutionException e) {
+			LOG.debug("Failed to read generation {}", generationKey, e.getCause());
+			return String.valueOf(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * @throws CacheUnavailableException if memcached can't be read
+	 */
+	private String readGeneration(String generationKey) throws CacheUnavailableException {
+		if (!breaker.allowRequest()) {
+			throw new CacheUnavailableException();
+		}
+		Object generation = awaitCache("Generation", "Get", memcachedClient.asyncGet(generationKey));
+		if (generation == null) {
+			// Start from the current time rather than 0 so an evicted
+			// generation never reuses a number that older keys were cached under
+			generation = String.valueOf(System.currentTimeMillis());
+			memcachedClient.add(generationKey, 0, generation);
+		}
+		return generation.toString().trim();
+	}
+
+	public void incrementGeneration(String generationKey) {
+		if (isEnabled()) {
+			// If the counter is gone, getGeneration starts a new one
+			memcachedClient.asyncIncr(generationKey, 1);
+			invalidateNearCaches(generationKey);
+		}
+	}
+
+	public boolean isEnabled() {
+		return Boolean.parseBoolean(config.getProperty(ConfigurationSettings.ConfigProps.CACHE_ENABLED));
+	}
+
+	private void invalidateNearCaches(String key) {
+		nearCache.invalidate(key);
+		generations.invalidate(key);
+		invalidationChannel.publish(key);
+	}
+
+	/**
+	 * Decide whether an entry read from memcached can be returned, or must be
+	 * (re)loaded because it is missing or due for an early refresh.
+	 */
+	private <T> boolean isUsable(String cacheName, String key, CacheEntry<T> entry) {
+		if (entry != null) {
+			if (!entry.shouldRefreshEarly(System.currentTimeMillis(), EARLY_REFRESH_BETA)) {
+				count(cacheName, "L2Hits");
+				nearCache.put(key, entry);
+				LOG.debug("CACHE HIT: {}", cacheName);
+				return true;
+			}
+			count(cacheName, "EarlyRefreshes");
+			LOG.debug("CACHE EARLY REFRESH: {}", cacheName);
+		} else {
+			count(cacheName, "Misses");
+			LOG.info("CACHE MISS: {}", cacheName);
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the request was answered from the near cache
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> boolean readLocal(CacheRequest<T> request) {
+		CacheEntry<T> local = (CacheEntry<T>) nearCache.getIfPresent(request.getKey());
+		if (local == null) {
+			return false;
+		}
+		count(request.getCacheName(), "L1Hits");
+		request.setValue(local.getValue());
+		return true;
+	}
+
+	/**
+	 * @return true if the request was answered with the value from getBulk
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> boolean readRemote(CacheRequest<T> request, Object cached) {
+		// Anything else was cached before entries were wrapped; reload it
+		CacheEntry<T> entry = cached instanceof CacheEntry ? (CacheEntry<T>) cached : null;
+		if (!isUsable(request.getCacheName(), request.getKey(), entry)) {
+			return false;
+		}
+		request.setValue(entry.getValue());
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> void fill(CacheRequest<T> request, Object cached) {
+		if (!isEnabled()) {
+			request.setValue(call(request.getLoader()));
+			return;
+		}
+		CacheEntry<T> stale = cached instanceof CacheEntry ? (CacheEntry<T>) cached : null;
+		request.setValue(load(request.getCacheName(), request.getKey(), request.getTtlSeconds(),
+				request.getLoader(), stale));
+	}
+
+	/**
+	 * Run the loader at most once per key on this node; concurrent callers
+	 * wait for that load, or keep using the old value during an early refresh.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T load(final String cacheName, final String key, final int ttlSeconds,
+			final Callable<T> loader, final CacheEntry<T> stale) {
+		FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return loadWithLease(cacheName, key, ttlSeconds, loader, stale);
+			}
+		});
+		FutureTask<Object> running = inFlight.putIfAbsent(key, task);
+		if (running != null) {
+			count(cacheName, "CoalescedLoads");
+			count(cacheName, "DuplicateLoadsPrevented");
+			return stale != null ? stale.getValue() : (T) await(running);
+		}
+		try {
+			task.run();
+			return (T) await(task);
+		} finally {
+			inFlight.remove(key, task);
+		}
+	}
+
+	private <T> T loadWithLease(String cacheName, String key, int ttlSeconds,
+			Callable<T> loader, CacheEntry<T> stale) throws Exception {
+		final String leaseKey = key + "-lease";
+		final boolean leased = acquireLease(cacheName, leaseKey);
+		if (!leased) {
+			// Another node is loading this key
+			if (stale != null) {
+				count(cacheName, "DuplicateLoadsPrevented");
+				return stale.getValue();
+			}
+			final long deadline = System.currentTimeMillis() + LEASE_WAIT_MILLIS;
+			while (System.currentTimeMillis() < deadline) {
+				Thread.sleep(LEASE_POLL_MILLIS);
+				CacheEntry<T> loaded = read(cacheName, key);
+				if (loaded != null) {
+					count(cacheName, "LeaseWaitHits");
+					count(cacheName, "DuplicateLoadsPrevented");
+					return loaded.getValue();
+				}
+			}
+			// The lease holder is slow or died; load it ourselves
+			count(cacheName, "LeaseTimeouts");
+		}
+
+		try {
+			final long startTime = System.currentTimeMillis();
+			T value = loader.call();
+			final long loadMillis = System.currentTimeMillis() - startTime;
+			count(cacheName, "Loads");
+			CacheEntry<T> entry = new CacheEntry<T>(value, expiresAt(ttlSeconds), loadMillis);
+			if (!breaker.isOpen()) {
+				memcachedClient.set(key, ttlSeconds, entry);
+			}
+			nearCache.put(key, entry);
+			return value;
+		} finally {
+			if (leased) {
+				memcachedClient.delete(leaseKey);
+			}
+		}
+	}
+
+	private boolean acquireLease(String cacheName, String leaseKey) {
+		try {
+			if (!breaker.allowRequest()) {
+				return true;
+			}
+			return !Boolean.FALSE.equals(awaitCache(cacheName, "Add",
+					memcachedClient.add(leaseKey, LEASE_SECONDS, nodeId)));
+		} catch (CacheUnavailableException e) {
+			// Can't coordinate with other nodes; fall back to loading locally
+			return true;
+		}
+	}
+
+	/**
+	 * @return the cached entry, or null if there is none or memcached is
+	 *         unavailable
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> CacheEntry<T> read(String cacheName, String key) {
+		if (!breaker.allowRequest()) {
+			count(cacheName, "Skipped");
+			return null;
+		}
+		try {
+			Object cached = awaitCache(cacheName, "Get", memcachedClient.asyncGet(key));
+			// Anything else was cached before entries were wrapped; reload it
+			return cached instanceof CacheEntry ? (CacheEntry<T>) cached : null;
+		} catch (CacheUnavailableException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the cached values by key; missing keys, or all of them if
+	 *         memcached is unavailable, are absent
+	 */
+	private Map<String, Object> readAll(List<CacheRequest<?>> requests) {
+		if (requests.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Set<String> keys = new HashSet<String>();
+		for (CacheRequest<?> request : requests) {
+			keys.add(request.getKey());
+		}
+		if (!breaker.allowRequest()) {
+			for (CacheRequest<?> request : requests) {
+				count(request.getCacheName(), "Skipped");
+			}
+			return Collections.emptyMap();
+		}
+		try {
+			return awaitCache("Bulk", "GetBulk", memcachedClient.asyncGetBulk(keys));
+		} catch (CacheUnavailableException e) {
+			return Collections.emptyMap();
+		}
+	}
+
+	/**
+	 * Wait for a memcached operation for at most CACHE_TIMEOUT_MILLIS. The
+	 * outcome is recorded with the circuit breaker and the latency is
+	 * reported.
+	 * @throws CacheUnavailableException on timeout or error
+	 */
+	private <V> V awaitCache(String cacheName, String operation, Future<V> future)
+			throws CacheUnavailableException {
+		final long startTime = System.currentTimeMillis();
+		boolean success = false;
+		try {
+			V value = future.get(timeoutMillis(), TimeUnit.MILLISECONDS);
+			success = true;
+			return value;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CacheUnavailableException();
+		} catch (TimeoutException e) {
+			count(cacheName, "Timeouts");
+			throw new CacheUnavailableException();
+		} catch (Exception e) {
+			count(cacheName, "Errors");
+			LOG.debug("memcached {} failed", operation, e);
+			throw new CacheUnavailableException();
+		} finally {
+			if (success) {
+				breaker.recordSuccess();
+			} else {
+				future.cancel(false);
+				if (breaker.recordFailure()) {
+					LOG.warn("memcached is failing, skipping the cache for {}ms", BREAKER_OPEN_MILLIS);
+				}
+			}
+			metricBatcher.addDatum("AMM", newDatum(cacheName, "Latency", new Date(startTime))
+					.withDimensions(new Dimension().withName("Operation")
+					                               .withValue(operation))
+					.withUnit(StandardUnit.Milliseconds)
+					.withValue((double) System.currentTimeMillis() - startTime));
+		}
+	}
+
+	private long timeoutMillis() {
+		try {
+			return Long.parseLong(config.getProperty(ConfigurationSettings.ConfigProps.CACHE_TIMEOUT_MILLIS).trim());
+		} catch (RuntimeException e) {
+			return DEFAULT_TIMEOUT_MILLIS;
+		}
+	}
+
+	private static int sizeOf(Object value) {
+		if (value instanceof Collection) {
+			return ((Collection<?>) value).size();
+		}
+		if (value instanceof VideoPage) {
+			return ((VideoPage) value).getVideos().size();
+		}
+		return 0;
+	}
+
+	private static long expiresAt(int ttlSeconds) {
+		return System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+	}
+
+	private static <T> T call(Callable<T> loader) {
+		try {
+			return loader.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static Object await(Future<?> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private void count(String cacheName, String metricName) {
+		counters.incrementAndGet(cacheName + "/" + metricName);
+	}
+
+	@Scheduled(fixedDelay = 60000)
+	public void emitMetrics() {
+		final Date now = new Date();
+		Map<String, Map<String, Long>> byCache = new HashMap<String, Map<String, Long>>();
+		for (Map.Entry<String, Long> counter : ImmutableMap.copyOf(counters.asMap()).entrySet()) {
+			counters.addAndGet(counter.getKey(), -counter.getValue());
+			String[] nameAndMetric = counter.getKey().split("/", 2);
+			if (!byCache.containsKey(nameAndMetric[0])) {
+				byCache.put(nameAndMetric[0], new HashMap<String, Long>());
+			}
+			byCache.get(nameAndMetric[0]).put(nameAndMetric[1], counter.getValue());
+			metricBatcher.addDatum("AMM", newDatum(nameAndMetric[0], nameAndMetric[1], now)
+					.withUnit(StandardUnit.Count)
+					.withValue((double) counter.getValue()));
+		}
+
+		metricBatcher.addDatum("AMM", new MetricDatum()
+				.withDimensions(new Dimension().withName("Svc")
+				                               .withValue(getClass().getSimpleName()))
+				.withMetricName("CircuitOpen")
+				.withUnit(StandardUnit.Count)
+				.withValue(breaker.isOpen() ? 1.0 : 0.0)
+				.withTimestamp(now));
+
+		// Hit ratio of each tier: L1 over all reads, L2 over the reads L1 missed
+		for (Map.Entry<String, Map<String, Long>> cache : byCache.entrySet()) {
+			long l1Hits = valueOf(cache.getValue(), "L1Hits");
+			long l2Hits = valueOf(cache.getValue(), "L2Hits");
+			long l2Reads = l2Hits + valueOf(cache.getValue(), "Misses") + valueOf(cache.getValue(), "EarlyRefreshes");
+			if (l1Hits + l2Reads > 0) {
+				metricBatcher.addDatum("AMM", newDatum(cache.getKey(), "L1HitRatio", now)
+						.withUnit(StandardUnit.Percent)
+						.withValue(100.0 * l1Hits / (l1Hits + l2Reads)));
+			}
+			if (l2Reads > 0) {
+				metricBatcher.addDatum("AMM", newDatum(cache.getKey(), "L2HitRatio", now)
+						.withUnit(StandardUnit.Percent)
+						.withValue(100.0 * l2Hits / l2Reads));
+			}
+		}
+	}
+
+	private MetricDatum newDatum(String cacheName, String metricName, Date timestamp) {
+		return new MetricDatum().withDimensions(new Dimension().withName("Svc")
+		                                                       .withValue(getClass().getSimpleName()),
+		                                        new Dimension().withName("Cache")
+		                                                       .withValue(cacheName))
+		                        .withMetricName(metricName)
+		                        .withTimestamp(timestamp);
+	}
+
+	/** A memcached call timed out, failed, or was skipped by the circuit breaker */
+	private static class CacheUnavailableException extends Exception {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static long valueOf(Map<String, Long> counts, String metricName) {
+		Long count = counts.get(metricName);
+		return count == null ? 0 : count;
+	}
+}
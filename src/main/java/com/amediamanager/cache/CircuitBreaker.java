@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stops calls to a dependency after a run of consecutive failures. While open,
+ * {@link #allowRequest()} refuses calls until the cool-down has passed; then
+ * a single trial call is let through, which closes the breaker if it
+ * succeeds or re-opens it if it fails.
+ */
+public class CircuitBreaker {
+	private final int failureThreshold;
+	private final long openMillis;
+
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+	private final AtomicBoolean trialInProgress = new AtomicBoolean();
+	private volatile long openedAt = -1;
+
+	public CircuitBreaker(int failureThreshold, long openMillis) {
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+	}
+
+	public boolean allowRequest() {
+		if (openedAt < 0) {
+			return true;
+		}
+		if (System.currentTimeMillis() - openedAt < openMillis) {
+			return false;
+		}
+		// Half-open: one caller gets to try
+		return trialInProgress.compareAndSet(false, true);
+	}
+
+	public void recordSuccess() {
+		consecutiveFailures.set(0);
+		openedAt = -1;
+		trialInProgress.set(false);
+	}
+
+	/**
+	 * @return true if this failure opened the breaker
+	 */
+	public boolean recordFailure() {
+		boolean wasClosed = openedAt < 0;
+		if (consecutiveFailures.incrementAndGet() >= failureThreshold || !wasClosed) {
+			openedAt = System.currentTimeMillis();
+			trialInProgress.set(false);
+			return wasClosed;
+		}
+		return false;
+	}
+
+	public boolean isOpen() {
+		return openedAt >= 0;
+	}
+}
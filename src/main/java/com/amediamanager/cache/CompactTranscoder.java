@@ -0,0 +1,325 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+
+import com.amediamanager.dao.TagCount;
+import com.amediamanager.dao.VideoPage;
+import com.amediamanager.domain.Privacy;
+import com.amediamanager.domain.Tag;
+import com.amediamanager.domain.Video;
+import com.google.common.base.Charsets;
+
+/**
+ * Encodes cached video lists, video pages and tag counts field by field
+ * instead of with Java serialization, which drags along class descriptors,
+ * Hibernate collection proxies and transient fields. Encoded values larger
+ * than the compression threshold are gzipped. Anything else, including the
+ * plain-text generation counters that memcached incr works on, is handled by
+ * the default SerializingTranscoder.
+ */
+public class CompactTranscoder extends SerializingTranscoder {
+
+	/** Default size above which encoded values are compressed */
+	public static final int DEFAULT_COMPRESSION_THRESHOLD = 16384;
+
+	// Same bit SerializingTranscoder uses, so compression is handled alike
+	private static final int COMPRESSED = 2;
+	// SerializingTranscoder uses bits 0 and 1, and 8-15 for its special types
+	private static final int COMPACT = 1 << 2;
+
+	private static final byte FORMAT_VERSION = 2;
+	private static final byte EMPTY_LIST = 0;
+	private static final byte VIDEO_LIST = 1;
+	private static final byte VIDEO_PAGE = 2;
+	private static final byte TAG_COUNT_LIST = 3;
+
+	public CompactTranscoder() {
+		this(DEFAULT_COMPRESSION_THRESHOLD);
+	}
+
+	public CompactTranscoder(int compressionThreshold) {
+		setCompressionThreshold(compressionThreshold);
+	}
+
+	@Override
+	public CachedData encode(Object o) {
+		byte type = typeOf(o);
+		if (type < 0) {
+			return super.encode(o);
+		}
+
+		byte[] data;
+		try {
+			data = write((CacheEntry<?>) o, type);
+		} catch (IOException e) {
+			getLogger().warn("Failed to encode compact cache entry, serializing it instead", e);
+			return super.encode(o);
+		}
+		int flags = COMPACT;
+		if (data.length > compressionThreshold) {
+			byte[] compressed = compress(data);
+			if (compressed.length < data.length) {
+				data = compressed;
+				flags |= COMPRESSED;
+			}
+		}
+		return new CachedData(flags, data, getMaxSize());
+	}
+
+	@Override
+	public Object decode(CachedData d) {
+		if ((d.getFlags() & COMPACT) == 0) {
+			return super.decode(d);
+		}
+
+		byte[] data = d.getData();
+		if ((d.getFlags() & COMPRESSED) != 0) {
+			data = decompress(data);
+		}
+		try {
+			return read(data);
+		} catch (IOException e) {
+			getLogger().warn("Failed to decode compact cache entry", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the type tag for values this transcoder encodes itself, or -1
+	 */
+	private static byte typeOf(Object o) {
+		if (!(o instanceof CacheEntry)) {
+			return -1;
+		}
+		Object value = ((CacheEntry<?>) o).getValue();
+		if (value instanceof VideoPage) {
+			return allOf(((VideoPage) value).getVideos(), Video.class) ? VIDEO_PAGE : -1;
+		}
+		if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			if (list.isEmpty()) {
+				return EMPTY_LIST;
+			}
+			if (allOf(list, Video.class)) {
+				return VIDEO_LIST;
+			}
+			if (allOf(list, TagCount.class)) {
+				return TAG_COUNT_LIST;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean allOf(List<?> list, Class<?> type) {
+		for (Object item : list) {
+			if (item == null || item.getClass() != type) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static byte[] write(CacheEntry<?> entry, byte type) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(FORMAT_VERSION);
+		out.writeLong(entry.getExpiresAt());
+		out.writeLong(entry.getLoadMillis());
+		out.writeByte(type);
+
+		switch (type) {
+		case VIDEO_LIST:
+			writeVideos(out, (List<Video>) entry.getValue());
+			break;
+		case VIDEO_PAGE:
+			VideoPage page = (VideoPage) entry.getValue();
+			writeVideos(out, page.getVideos());
+			writeString(out, page.getNextCursor());
+			break;
+		case TAG_COUNT_LIST:
+			List<TagCount> tags = (List<TagCount>) entry.getValue();
+			out.writeInt(tags.size());
+			for (TagCount tag : tags) {
+				writeString(out, tag.getTagId());
+				writeString(out, tag.getName());
+				out.writeLong(tag.getCount());
+			}
+			break;
+		default:
+			break;
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static Object read(byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		if (in.readByte() != FORMAT_VERSION) {
+			// Written by a different version; treat as a miss
+			return null;
+		}
+		long expiresAt = in.readLong();
+		long loadMillis = in.readLong();
+		byte type = in.readByte();
+
+		Object value;
+		switch (type) {
+		case EMPTY_LIST:
+			value = new ArrayList<Object>();
+			break;
+		case VIDEO_LIST:
+			value = readVideos(in);
+			break;
+		case VIDEO_PAGE:
+			List<Video> videos = readVideos(in);
+			value = new VideoPage(videos, readString(in));
+			break;
+		case TAG_COUNT_LIST:
+			int size = in.readInt();
+			List<TagCount> tags = new ArrayList<TagCount>(size);
+			for (int i = 0; i < size; i++) {
+				tags.add(new TagCount(readString(in), readString(in), in.readLong()));
+			}
+			value = tags;
+			break;
+		default:
+			return null;
+		}
+		return new CacheEntry<Object>(value, expiresAt, loadMillis);
+	}
+
+	private static void writeVideos(DataOutputStream out, List<Video> videos) throws IOException {
+		out.writeInt(videos.size());
+		for (Video video : videos) {
+			writeString(out, video.getId());
+			writeString(out, video.getTranscodeJobId());
+			writeString(out, video.getOwner());
+			writeString(out, video.getBucket());
+			writeString(out, video.getOriginalKey());
+			writeString(out, video.getThumbnailKey());
+			writeString(out, video.getPreviewKey());
+			writeString(out, video.getTitle());
+			writeString(out, video.getDescription());
+			writeDate(out, video.getUploadedDate());
+			writeDate(out, video.getCreatedDate());
+			writeString(out, video.getPrivacy() == null ? null : video.getPrivacy().name());
+
+			Set<Tag> tags = video.getTags();
+			out.writeInt(tags == null ? -1 : tags.size());
+			if (tags != null) {
+				for (Tag tag : tags) {
+					writeString(out, tag.getTagId());
+					writeString(out, tag.getName());
+				}
+			}
+		}
+	}
+
+	private static List<Video> readVideos(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		List<Video> videos = new ArrayList<Video>(size);
+		for (int i = 0; i < size; i++) {
+			Video video = new Video();
+			video.setId(readString(in));
+			video.setTranscodeJobId(readString(in));
+			video.setOwner(readString(in));
+			video.setBucket(readString(in));
+			video.setOriginalKey(readString(in));
+			video.setThumbnailKey(readString(in));
+			video.setPreviewKey(readString(in));
+			video.setTitle(readString(in));
+			video.setDescription(readString(in));
+			video.setUploadedDate(readDate(in));
+			video.setCreatedDate(readDate(in));
+			video.setPrivacy(readPrivacy(in));
+
+			int tagCount = in.readInt();
+			if (tagCount >= 0) {
+				Set<Tag> tags = new HashSet<Tag>();
+				for (int t = 0; t < tagCount; t++) {
+					Tag tag = new Tag();
+					tag.setTagId(readString(in));
+					tag.setName(readString(in));
+					tags.add(tag);
+				}
+				video.setTags(tags);
+			}
+			videos.add(video);
+		}
+		return videos;
+	}
+
+	private static Privacy readPrivacy(DataInputStream in) throws IOException {
+		String name = readString(in);
+		try {
+			return name == null ? null : Privacy.valueOf(name);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Unknown privacy " + name);
+		}
+	}
+
+	/**
+	 * Strings are written as their UTF-8 length (-1 for null) and bytes;
+	 * writeUTF is limited to 64KB, which a description can exceed.
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(Charsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		if (length > in.available()) {
+			throw new IOException("Truncated string of " + length + " bytes");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, Charsets.UTF_8);
+	}
+
+	private static void writeDate(DataOutputStream out, Date value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeLong(value.getTime());
+		}
+	}
+
+	private static Date readDate(DataInputStream in) throws IOException {
+		return in.readBoolean() ? new Date(in.readLong()) : null;
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+/**
+ * Broadcasts cache keys that changed so every instance can drop them from its
+ * in-process near cache.
+ */
+public interface InvalidationChannel {
+
+	/**
+	 * Tell the other instances that the key changed. Instances do not receive
+	 * their own invalidations.
+	 */
+	void publish(String key);
+
+	void subscribe(Listener listener);
+
+	public static interface Listener {
+		void invalidate(String key);
+	}
+}
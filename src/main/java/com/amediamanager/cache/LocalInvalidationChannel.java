@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process channel for a single instance (and tests): there are no other
+ * instances to notify, so published keys only reach listeners registered
+ * through {@link #deliver(String)}.
+ */
+public class LocalInvalidationChannel implements InvalidationChannel {
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	@Override
+	public void publish(String key) {
+	}
+
+	@Override
+	public void subscribe(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Hand a key to the listeners as if another instance had published it.
+	 */
+	public void deliver(String key) {
+		for (Listener listener : listeners) {
+			listener.invalidate(key);
+		}
+	}
+}
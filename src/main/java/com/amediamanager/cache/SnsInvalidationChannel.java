@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.model.PublishRequest;
+import com.amazonaws.services.sns.model.UnsubscribeRequest;
+import com.amazonaws.services.sns.util.Topics;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteQueueRequest;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Fans invalidations out to every instance through an SNS topic. Each
+ * instance subscribes its own temporary SQS queue to the topic on startup
+ * and removes it on shutdown. The queue is long-polled on a dedicated thread
+ * so it doesn't hold up the scheduled tasks.
+ * <p>
+ * Invalidations are published in the background, so requests that change
+ * cached data don't wait on SNS. When SNS is slow enough for the publish
+ * queue to fill up, further invalidations are dropped and other instances
+ * serve their near cache copies until the near cache TTL.
+ */
+public class SnsInvalidationChannel implements InvalidationChannel {
+	private static final Logger LOG = LoggerFactory.getLogger(SnsInvalidationChannel.class);
+	static final int PUBLISH_THREADS = 2;
+	static final int PUBLISH_QUEUE_SIZE = 1000;
+	/** How long stop() waits for queued invalidations to go out */
+	private static final int PUBLISH_DRAIN_SECONDS = 5;
+
+	private final AmazonSNS snsClient;
+	private final AmazonSQS sqsClient;
+	private final String topicArn;
+	private final String nodeId = UUID.randomUUID().toString();
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private final ExecutorService publishers;
+
+	private String queueUrl;
+	private String subscriptionArn;
+	private volatile boolean running;
+	private Thread poller;
+
+	public SnsInvalidationChannel(AmazonSNS snsClient, AmazonSQS sqsClient, String topicArn) {
+		this.snsClient = snsClient;
+		this.sqsClient = sqsClient;
+		this.topicArn = topicArn;
+		ThreadPoolExecutor publishers = new ThreadPoolExecutor(PUBLISH_THREADS, PUBLISH_THREADS, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(PUBLISH_QUEUE_SIZE),
+				new ThreadFactoryBuilder().setNameFormat("cache-invalidation-publisher-%d").setDaemon(true).build());
+		publishers.allowCoreThreadTimeOut(true);
+		this.publishers = publishers;
+	}
+
+	@PostConstruct
+	public void start() {
+		queueUrl = sqsClient.createQueue(new CreateQueueRequest("amm-cache-invalidation-" + nodeId)
+				.addAttributesEntry("MessageRetentionPeriod", "300")).getQueueUrl();
+		subscriptionArn = Topics.subscribeQueue(snsClient, sqsClient, topicArn, queueUrl);
+		LOG.info("Receiving cache invalidations from {} on {}", topicArn, queueUrl);
+
+		running = true;
+		poller = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (running) {
+					try {
+						poll();
+					} catch (Exception e) {
+						LOG.warn("Failed to receive cache invalidations", e);
+						sleepQuietly(1000);
+					}
+				}
+			}
+		}, "cache-invalidation-poller");
+		poller.setDaemon(true);
+		poller.start();
+	}
+
+	@PreDestroy
+	public void stop() {
+		running = false;
+		if (poller != null) {
+			poller.interrupt();
+		}
+		publishers.shutdown();
+		try {
+			if (!publishers.awaitTermination(PUBLISH_DRAIN_SECONDS, TimeUnit.SECONDS)) {
+				LOG.warn("Gave up publishing queued cache invalidations on shutdown");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			snsClient.unsubscribe(new UnsubscribeRequest(subscriptionArn));
+			sqsClient.deleteQueue(new DeleteQueueRequest(queueUrl));
+		} catch (Exception e) {
+			LOG.warn("Failed to remove cache invalidation queue {}", queueUrl, e);
+		}
+	}
+
+	@Override
+	public void publish(final String key) {
+		try {
+			publishers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						snsClient.publish(new PublishRequest(topicArn, nodeId + "\n" + key));
+					} catch (Exception e) {
+						// Other instances fall back on the near cache TTL
+						LOG.warn("Failed to publish cache invalidation for {}", key, e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			LOG.warn("Dropped cache invalidation for {}, {} are already queued", key, PUBLISH_QUEUE_SIZE);
+		}
+	}
+
+	@Override
+	public void subscribe(Listener listener) {
+		listeners.add(listener);
+	}
+
+	private void poll() throws Exception {
+		List<Message> messages = sqsClient.receiveMessage(new ReceiveMessageRequest(queueUrl)
+				.withMaxNumberOfMessages(10)
+				.withWaitTimeSeconds(20)).getMessages();
+		if (messages.isEmpty()) {
+			return;
+		}
+
+		List<DeleteMessageBatchRequestEntry> handled = new ArrayList<DeleteMessageBatchRequestEntry>();
+		for (Message message : messages) {
+			// SNS wraps the published text in a JSON envelope
+			String body = mapper.readTree(message.getBody()).path("Message").asText();
+			String[] originAndKey = body.split("\n", 2);
+			if (originAndKey.length == 2 && !nodeId.equals(originAndKey[0])) {
+				for (Listener listener : listeners) {
+					listener.invalidate(originAndKey[1]);
+				}
+			}
+			handled.add(new DeleteMessageBatchRequestEntry(message.getMessageId(), message.getReceiptHandle()));
+		}
+		sqsClient.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, handled));
+	}
+
+	private static void sleepQuietly(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
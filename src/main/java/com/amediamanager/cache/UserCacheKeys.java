@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+import com.amediamanager.dao.VideoCursor;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * memcached keys of the per-user cache entries, shared by the services and
+ * by tools that change a user's videos outside of them (e.g. the catalog
+ * importer) and have to retire what is cached.
+ */
+public final class UserCacheKeys {
+
+	private UserCacheKeys() {
+	}
+
+	/** Generation number embedded in the keys of the user's video pages */
+	public static String videoPageGeneration(String ownerId) {
+		return ownerId + "-videos-gen";
+	}
+
+	/** The user's tags and their video counts */
+	public static String tagList(String ownerId) {
+		return ownerId + "-tags";
+	}
+
+	/** Generation number embedded in the keys of the user's tag pages */
+	public static String tagPageGeneration(String ownerId) {
+		return ownerId + "-tags-gen";
+	}
+
+	/**
+	 * The part of a page key that identifies the page. Video ids in cursors
+	 * come from the query string and imported catalogs, so they are hashed
+	 * to keep the key memcached-safe (no spaces, at most 250 bytes).
+	 * @param after the parsed cursor, or null for the first page
+	 */
+	public static String pagePosition(VideoCursor after) {
+		return after == null ? "first" : Hashing.md5().hashString(after.toString(), Charsets.UTF_8).toString();
+	}
+}
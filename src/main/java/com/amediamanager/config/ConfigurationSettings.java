@@ -44,11 +44,15 @@ public class ConfigurationSettings {
 		S3_UPLOAD_BUCKET,
 		S3_UPLOAD_PREFIX,
 		S3_PROFILE_PIC_PREFIX,
+		PRESIGNED_URL_REUSE_FRACTION,
 		DEFAULT_PROFILE_PIC_KEY,
 		DEFAULT_VIDEO_POSTER_KEY,
 		CACHE_ENDPOINT,
 		CACHE_PORT,
 		CACHE_ENABLED,
+		CACHE_WRITE_THROUGH,
+		CACHE_INVALIDATION_TOPIC,
+		CACHE_TIMEOUT_MILLIS,
 		RDS_DATABASE,
 		RDS_USERNAME,
 		RDS_PASSWORD,
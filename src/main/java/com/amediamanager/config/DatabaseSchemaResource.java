@@ -16,12 +16,12 @@ package com.amediamanager.config;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
 import javax.annotation.PostConstruct;
-import javax.sql.DataSource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,25 +30,45 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import org.springframework.web.context.WebApplicationContext;
 
-import com.amediamanager.dao.RdsDriverManagerDataSource;
+import com.amediamanager.dao.RdsPooledDataSource;
 
+/**
+ * Provisions the RDS schema through an ordered list of versioned migrations.
+ * The version applied last is recorded in the schema_version table, so
+ * provisioning an existing database only applies the migrations it is
+ * missing and upgrades the tables in place. A database created before
+ * versioning (videos table, no recorded version) counts as version 1.
+ * Databases that were provisioned before are upgraded automatically at
+ * startup; only an empty database waits for provisioning from the config page.
+ */
 @Component
 @Scope(WebApplicationContext.SCOPE_APPLICATION)
 public class DatabaseSchemaResource implements ProvisionableResource {
     private static final Logger LOG = LoggerFactory.getLogger(DatabaseSchemaResource.class);
 
+    /** MySQL error returned when adding an index that already exists **/
+    private static final int ER_DUP_KEYNAME = 1061;
+
     @Autowired
-    private RdsDriverManagerDataSource dataSource;
+    private RdsPooledDataSource dataSource;
 
     private static final String name = "RDS Database Schema";
-    private ProvisionState provisionState;
+    private volatile ProvisionState provisionState;
+    private volatile int schemaVersion;
 
     @PostConstruct
+    public void init() {
+        this.checkProvisionedState();
+        if (schemaVersion > 0 && schemaVersion < LATEST_VERSION) {
+            LOG.info("Upgrading schema from version {} to {}", schemaVersion, LATEST_VERSION);
+            this.provision();
+        }
+    }
+
     public void checkProvisionedState() {
         try {
-            if(this.doesDataSourceExist(VIDEO_TABLE_NAME) &&
-                    this.doesDataSourceExist(TAGS_TABLE_NAME) &&
-                    this.doesDataSourceExist(VIDEOS_TAGS_TABLE_NAME)) {
+            schemaVersion = this.readSchemaVersion();
+            if(schemaVersion >= LATEST_VERSION) {
                 provisionState = ProvisionableResource.ProvisionState.PROVISIONED;
             } else {
                 provisionState = ProvisionableResource.ProvisionState.UNPROVISIONED;
@@ -69,15 +89,67 @@ public class DatabaseSchemaResource implements ProvisionableResource {
     }
 
     @Override
-    public void provision() {
-        this.provisionDataSource(VIDEO_DROP_TABLE, VIDEO_CREATE_TABLE);
-        this.provisionDataSource(TAGS_DROP_TABLE, TAGS_CREATE_TABLE);
-        this.provisionDataSource(VIDEOS_TAGS_DROP_TABLE, VIDEOS_TAGS_CREATE_TABLE);
+    public String getStatusDetail() {
+        int pending = LATEST_VERSION - schemaVersion;
+        if (pending <= 0) {
+            return "Schema version " + schemaVersion;
+        }
+        return "Schema version " + schemaVersion + " of " + LATEST_VERSION + ", "
+                + pending + " migration(s) pending";
+    }
+
+    @Override
+    public synchronized void provision() {
+        provisionState = ProvisionableResource.ProvisionState.PROVISIONING;
+        try {
+            this.executeStatement(SCHEMA_VERSION_CREATE_TABLE);
+            int currentVersion = this.readSchemaVersion();
+
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version > currentVersion) {
+                    LOG.info("Applying schema migration {}: {}", migration.version, migration.description);
+                    this.applyMigration(migration);
+                }
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed provisioning datasource", e);
+        }
 
         // Refresh provisioned state
         this.checkProvisionedState();
     }
 
+    private int readSchemaVersion() throws Exception {
+        int version = 0;
+        if (this.doesDataSourceExist(SCHEMA_VERSION_TABLE_NAME)) {
+            version = this.readRecordedVersion();
+        }
+        if (version == 0 && this.doesDataSourceExist(VIDEO_TABLE_NAME)) {
+            // Provisioned before versioning, with the tables of migration 1
+            return BASELINE_VERSION;
+        }
+        return version;
+    }
+
+    private int readRecordedVersion() throws Exception {
+        Connection connection = null;
+        Statement statement = null;
+        ResultSet results = null;
+        try {
+            connection = dataSource.getConnection();
+            statement = connection.createStatement();
+            results = statement.executeQuery("SELECT MAX(`version`) FROM " + SCHEMA_VERSION_TABLE_NAME);
+            return results.next() ? results.getInt(1) : 0;
+        } finally {
+            try {
+                results.close();
+                statement.close();
+                connection.close();
+            } catch (Exception x) {
+            }
+        }
+    }
+
     private Boolean doesDataSourceExist(final String tableName) throws Exception {
         boolean dataSourceExists = false;
 
@@ -105,19 +177,49 @@ public class DatabaseSchemaResource implements ProvisionableResource {
         return dataSourceExists;
     }
 
-    private void provisionDataSource(final String dropTableQuery, final String createTableQuery) {
-
+    private void applyMigration(final Migration migration) throws SQLException {
         Connection connection = null;
         Statement statement = null;
+        PreparedStatement record = null;
         try {
             connection = dataSource.getConnection();
             statement = connection.createStatement();
 
-            statement.executeUpdate(dropTableQuery);
-            statement.executeUpdate(createTableQuery);
+            for (String sql : migration.statements) {
+                try {
+                    statement.executeUpdate(sql);
+                } catch (SQLException e) {
+                    // Databases created before versioning may already have
+                    // some of the indexes
+                    if (e.getErrorCode() != ER_DUP_KEYNAME) {
+                        throw e;
+                    }
+                    LOG.info("Skipping existing index in migration {}", migration.version);
+                }
+            }
 
-        } catch (SQLException e) {
-            LOG.warn("Failed provisioning datasource", e);
+            record = connection.prepareStatement("INSERT INTO " + SCHEMA_VERSION_TABLE_NAME
+                    + " (`version`, `description`) VALUES (?, ?)");
+            record.setInt(1, migration.version);
+            record.setString(2, migration.description);
+            record.executeUpdate();
+        } finally {
+            try {
+                if (record != null) record.close();
+                statement.close();
+                connection.close();
+            } catch (Exception x) {
+            }
+        }
+    }
+
+    private void executeStatement(final String sql) throws SQLException {
+        Connection connection = null;
+        Statement statement = null;
+        try {
+            connection = dataSource.getConnection();
+            statement = connection.createStatement();
+            statement.executeUpdate(sql);
         } finally {
             try {
                 statement.close();
@@ -127,23 +229,47 @@ public class DatabaseSchemaResource implements ProvisionableResource {
         }
     }
 
+    /**
+     * A numbered set of DDL statements. Migrations are applied in order and
+     * must never be edited once released; add a new one instead.
+     */
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final String[] statements;
+
+        Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+    }
+
+    /** Schema version table **/
+    public static final String SCHEMA_VERSION_TABLE_NAME = "schema_version";
+
+    private static final String SCHEMA_VERSION_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS `schema_version` (" +
+              "`version` int NOT NULL," +
+              "`description` varchar(255) NOT NULL," +
+              "`appliedDate` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+              "PRIMARY KEY (`version`)" +
+            ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
+
     /** Tags table**/
     public static final String TAGS_TABLE_NAME = "tags";
 
-    private static final String TAGS_CREATE_TABLE = "CREATE TABLE `tags` (" +
+    private static final String TAGS_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS `tags` (" +
             "`tagId` varchar(255) NOT NULL," +
             "`name` varchar(255) NOT NULL," +
               "PRIMARY KEY (`tagId`)," +
               "KEY `ix_tag` (`tagId`)" +
             ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
 
-    public static final String TAGS_DROP_TABLE = "DROP TABLE IF EXISTS " + TAGS_TABLE_NAME;
-
 
     /** Video table stuff**/
     public static final String VIDEO_TABLE_NAME = "videos";
 
-    private static final String VIDEO_CREATE_TABLE = "CREATE TABLE `videos` (" +
+    private static final String VIDEO_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS `videos` (" +
               "`videoId` varchar(255) NOT NULL," +
               "`transcodeJobId` varchar(255) UNIQUE NULL," +
               "`originalKey` varchar(255) NOT NULL," +
@@ -161,13 +287,11 @@ public class DatabaseSchemaResource implements ProvisionableResource {
               "UNIQUE KEY `originalKey` (`originalKey`)" +
             ") ENGINE=InnoDB DEFAULT CHARSET=utf8;";
 
-    public static final String VIDEO_DROP_TABLE = "DROP TABLE IF EXISTS " + VIDEO_TABLE_NAME;
-
 
     /** Videos_Tags join tablef**/
     public static final String VIDEOS_TAGS_TABLE_NAME = "videos_tags";
 
-    private static final String VIDEOS_TAGS_CREATE_TABLE = "CREATE TABLE `videos_tags` (" +
+    private static final String VIDEOS_TAGS_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS `videos_tags` (" +
               "`tagId` varchar(255) NOT NULL," +
               "`videoId` varchar(255) NOT NULL," +
               "PRIMARY KEY (`tagId`,`videoId`)," +
@@ -176,5 +300,42 @@ public class DatabaseSchemaResource implements ProvisionableResource {
             ") ENGINE=InnoDB DEFAULT CHARSET=utf8;";
 
 
-    public static final String VIDEOS_TAGS_DROP_TABLE = "DROP TABLE IF EXISTS " + VIDEOS_TAGS_TABLE_NAME;
+    /** Per-user tag counts, maintained alongside video writes **/
+    public static final String USER_TAG_COUNTS_TABLE_NAME = "user_tag_counts";
+
+    private static final String USER_TAG_COUNTS_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS `user_tag_counts` (" +
+              "`owner` varchar(255) NOT NULL," +
+              "`tagId` varchar(255) NOT NULL," +
+              "`videoCount` bigint NOT NULL," +
+              "PRIMARY KEY (`owner`,`tagId`)" +
+            ") ENGINE=InnoDB DEFAULT CHARSET=utf8;";
+
+    private static final String USER_TAG_COUNTS_BACKFILL = "INSERT INTO `user_tag_counts` (`owner`, `tagId`, `videoCount`) " +
+              "SELECT v.`owner`, vt.`tagId`, COUNT(*) FROM `videos` v " +
+              "JOIN `videos_tags` vt ON vt.`videoId` = v.`videoId` " +
+              "GROUP BY v.`owner`, vt.`tagId` " +
+            "ON DUPLICATE KEY UPDATE `videoCount` = VALUES(`videoCount`)";
+
+
+    /** Migrations, in the order they are applied **/
+    private static final Migration[] MIGRATIONS = {
+        new Migration(1, "Create videos, tags and videos_tags tables",
+                VIDEO_CREATE_TABLE,
+                TAGS_CREATE_TABLE,
+                VIDEOS_TAGS_CREATE_TABLE),
+        new Migration(2, "Index videos by owner and upload date",
+                "ALTER TABLE `videos` ADD KEY `ix_owner_uploaded` (`owner`,`uploadedDate`,`videoId`)"),
+        new Migration(3, "Index videos_tags by video",
+                "ALTER TABLE `videos_tags` ADD KEY `ix_video_tag` (`videoId`,`tagId`)"),
+        new Migration(4, "Index public videos by upload date",
+                "ALTER TABLE `videos` ADD KEY `ix_privacy_uploaded` (`privacy`,`uploadedDate`,`videoId`)"),
+        new Migration(5, "Create and backfill user_tag_counts",
+                USER_TAG_COUNTS_CREATE_TABLE,
+                USER_TAG_COUNTS_BACKFILL)
+    };
+
+    private static final int LATEST_VERSION = MIGRATIONS[MIGRATIONS.length - 1].version;
+
+    /** The version of a database created before schema_version existed **/
+    private static final int BASELINE_VERSION = 1;
 }
@@ -39,6 +39,8 @@ public class EditableConfigurationProperties {
 	public void initialize() {
 		configProps = new ArrayList<EditableConfigurationProperty>();
 		configProps.add(new EditableConfigurationProperty(ConfigProps.CACHE_ENABLED, config.getProperty(ConfigProps.CACHE_ENABLED), "Enable Caching?"));
+		configProps.add(new EditableConfigurationProperty(ConfigProps.CACHE_WRITE_THROUGH, config.getProperty(ConfigProps.CACHE_WRITE_THROUGH), "Update cache on write?"));
+		configProps.add(new EditableConfigurationProperty(ConfigProps.CACHE_TIMEOUT_MILLIS, config.getProperty(ConfigProps.CACHE_TIMEOUT_MILLIS), "Cache timeout (ms)"));
 	}
 	
 	public List<EditableConfigurationProperty> getConfigProps() {
@@ -66,6 +66,11 @@ public class ElasticTranscoderPipelineResource implements ProvisionableResource
         return "Elastic Transcoder Pipeline";
     }
 
+    @Override
+    public String getStatusDetail() {
+        return null;
+    }
+
     private String getPipeline() {
         return config.getProperty(ConfigProps.TRANSCODE_PIPELINE);
     }
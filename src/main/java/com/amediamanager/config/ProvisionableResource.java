@@ -27,5 +27,9 @@ public interface ProvisionableResource {
 	}
 	public ProvisionState getState();
 	public String getName();
+	/**
+	 * @return extra detail about the state (e.g. a schema version), or null
+	 */
+	public String getStatusDetail();
 	public void provision();
 }
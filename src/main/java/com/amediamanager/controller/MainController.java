@@ -29,10 +29,14 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 
 import com.amediamanager.dao.TagCount;
+import com.amediamanager.dao.VideoPage;
 import com.amediamanager.domain.NewUser;
-import com.amediamanager.domain.Video;
+import com.amediamanager.domain.VideoView;
+import com.amediamanager.exceptions.InvalidCursorException;
+import com.amediamanager.service.PageData;
 import com.amediamanager.service.TagsService;
 import com.amediamanager.service.UserService;
 import com.amediamanager.service.VideoService;
@@ -40,6 +44,9 @@ import com.amediamanager.service.VideoService;
 @Controller
 public class MainController {
 	private static final Logger LOG = LoggerFactory.getLogger(MainController.class);
+
+	/** Number of videos shown per page on the home and tag pages **/
+	public static final int VIDEOS_PER_PAGE = 24;
 	
 	@Autowired
 	UserService userService;
@@ -51,7 +58,8 @@ public class MainController {
 	TagsService tagService;
 
 	@RequestMapping(value = { "/", "/home", "/welcome" }, method = RequestMethod.GET)
-	public String home(ModelMap model, HttpSession session) {
+	public String home(ModelMap model, HttpSession session,
+			@RequestParam(value = "after", required = false) String after) {
 		Authentication auth = SecurityContextHolder.getContext()
 				.getAuthentication();
 
@@ -60,21 +68,29 @@ public class MainController {
             model.addAttribute("newUser", new NewUser());
 			model.addAttribute("templateName", "welcome");
 		} else {
-			List<Video> videos = new ArrayList<Video>();
+			List<VideoView> videos = new ArrayList<VideoView>();
 			List<TagCount> tags = new ArrayList<TagCount>();
+			VideoPage page = null;
 			try {
-				// Get user's videos and tags
-				videos = videoService.findByUserId(auth.getName());
-				tags = tagService.getTagsForUser(auth.getName());
+				// Get a page of the user's videos and their tags
+				PageData pageData = videoService.findPageDataByUserId(auth.getName(), after, VIDEOS_PER_PAGE);
+				page = pageData.getVideos();
+				tags = pageData.getTags();
 
 				// Add expiring URLs (1 hour)
-				videos = videoService.generateExpiringUrls(videos, 1000*60*60);
+				videos = videoService.generateExpiringUrls(page.getVideos(), 1000*60*60);
+			} catch (InvalidCursorException e) {
+				// Bad paging cursor, start over from the first page
+				return "redirect:/";
 			} catch (Exception e) {
 				LOG.error("Error loading videos: {}", e);
 				return "redirect:/config";
 			}
 			model.addAttribute("tags", tags);
 			model.addAttribute("videos", videos);
+			model.addAttribute("pageUrl", "/");
+			model.addAttribute("after", after);
+			model.addAttribute("nextCursor", page.getNextCursor());
 			model.addAttribute("templateName", "only_videos");
 		}
 		return "base";
@@ -100,11 +116,11 @@ public class MainController {
 	@RequestMapping(value = "/login-failed", method = RequestMethod.GET)
 	public String loginerror(ModelMap model, HttpSession session) {
 		model.addAttribute("error", "Login failed.");
-		return home(model, session);
+		return home(model, session, null);
 	}
 
 	@RequestMapping(value = "/logout", method = RequestMethod.GET)
 	public String logout(ModelMap model, HttpSession session) {
-		return home(model, session);
+		return home(model, session, null);
 	}
 }
@@ -39,6 +39,7 @@ import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import com.amediamanager.domain.NewUser;
 import com.amediamanager.domain.User;
 import com.amediamanager.exceptions.UserExistsException;
+import com.amediamanager.exceptions.UserModifiedException;
 import com.amediamanager.service.UserService;
 
 @Controller
@@ -92,11 +93,18 @@ public class UserController {
         user.setEmail(auth.getName());
 
         // Update user and re-set val in session
-        userService.update(user);
+        User updated;
+        try {
+            updated = userService.update(user);
+        } catch (UserModifiedException e) {
+            // Show the current profile so the edit can be made again
+            attr.addFlashAttribute("error", "Your profile was changed elsewhere, please try again.");
+            updated = userService.find(auth.getName());
+        }
 
         // Update user auth object in security context
         UsernamePasswordAuthenticationToken newAuth= new UsernamePasswordAuthenticationToken(auth.getName(), null, auth.getAuthorities());
-        newAuth.setDetails(user);
+        newAuth.setDetails(updated);
         SecurityContextHolder.getContext().setAuthentication(newAuth);
 
         return "redirect:/user";
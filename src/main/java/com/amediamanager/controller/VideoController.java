@@ -14,6 +14,7 @@
  */
 package com.amediamanager.controller;
 
+import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -45,6 +46,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+import org.springframework.web.util.UriUtils;
 
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.elastictranscoder.AmazonElasticTranscoder;
@@ -58,11 +60,15 @@ import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amediamanager.config.ConfigurationSettings;
 import com.amediamanager.config.ConfigurationSettings.ConfigProps;
 import com.amediamanager.dao.TagCount;
+import com.amediamanager.dao.VideoPage;
 import com.amediamanager.domain.ContentType;
 import com.amediamanager.domain.Privacy;
 import com.amediamanager.domain.Tag;
 import com.amediamanager.domain.User;
 import com.amediamanager.domain.Video;
+import com.amediamanager.domain.VideoView;
+import com.amediamanager.exceptions.InvalidCursorException;
+import com.amediamanager.service.PageData;
 import com.amediamanager.service.TagsService;
 import com.amediamanager.service.VideoService;
 import com.amediamanager.util.CommaDelimitedTagEditor;
@@ -102,23 +108,32 @@ public class VideoController {
 	}
 
 	@RequestMapping(value = "/tags/{tagId}", method = RequestMethod.GET)
-	public String tags(ModelMap model, @PathVariable String tagId) {
+	public String tags(ModelMap model, @PathVariable String tagId,
+			@RequestParam(value = "after", required = false) String after) throws UnsupportedEncodingException {
 		Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-		List<Video> videos = new ArrayList<Video>();
+		List<VideoView> videos = new ArrayList<VideoView>();
 		List<TagCount> tags = new ArrayList<TagCount>();
+		VideoPage page = null;
 		try {
-			// Get user's videos and tags
-			videos = tagService.getVideosForUserByTag(auth.getName(), tagId);
-			tags = tagService.getTagsForUser(auth.getName());
+			// Get a page of the user's videos with this tag, and their tags
+			PageData pageData = tagService.getPageDataForUserByTag(auth.getName(), tagId, after, MainController.VIDEOS_PER_PAGE);
+			page = pageData.getVideos();
+			tags = pageData.getTags();
 
 			// Add expiring URLs (1 hour)
-			videos = videoService.generateExpiringUrls(videos, 1000*60*60);
+			videos = videoService.generateExpiringUrls(page.getVideos(), 1000*60*60);
+		} catch (InvalidCursorException e) {
+			// Bad paging cursor, start over from the first page
+			return "redirect:/tags/" + UriUtils.encodePathSegment(tagId, "UTF-8");
 		} catch (Exception e) {
 			return "redirect:/config";
 		}
 		model.addAttribute("selectedTag", tagId);
 		model.addAttribute("tags", tags);
 		model.addAttribute("videos", videos);
+		model.addAttribute("pageUrl", "/tags/" + UriUtils.encodePathSegment(tagId, "UTF-8"));
+		model.addAttribute("after", after);
+		model.addAttribute("nextCursor", page.getNextCursor());
 		model.addAttribute("templateName", "only_videos");
 		return "base";
 	}
@@ -132,8 +147,8 @@ public class VideoController {
 			videoService.delete(video);
 			return videos(model);
 		} else {
-			video = videoService.generateExpiringUrl(video, 5000);
 			model.addAttribute("video", video);
+			model.addAttribute("thumbnailUrl", videoService.generateExpiringUrl(video, 5000).getThumbnailUrl());
 			model.addAttribute("templateName", "video_edit");
 
 			return "base";
@@ -30,11 +30,18 @@ import org.springframework.web.multipart.commons.CommonsMultipartFile;
 
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeAction;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.AttributeValueUpdate;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
 import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
 import com.amazonaws.services.dynamodbv2.model.GetItemResult;
 import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
 import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.CannedAccessControlList;
 import com.amazonaws.services.s3.model.ObjectMetadata;
@@ -43,7 +50,9 @@ import com.amediamanager.config.ConfigurationSettings;
 import com.amediamanager.config.ConfigurationSettings.ConfigProps;
 import com.amediamanager.domain.User;
 import com.amediamanager.exceptions.DataSourceTableDoesNotExistException;
+import com.amediamanager.exceptions.UserDoesNotExistException;
 import com.amediamanager.exceptions.UserExistsException;
+import com.amediamanager.exceptions.UserModifiedException;
 
 public class DynamoDbUserDaoImpl implements UserDao {
 
@@ -66,6 +75,7 @@ public class DynamoDbUserDaoImpl implements UserDao {
 	public static final String TAGLINE_ATTR = "Tagline";
 	public static final String PROFILE_PIC_KEY_ATTR = "ProfilePicKey";
 	public static final String ALERT_ON_NEW_CONTENT_ATTR = "AlertOnNewContent";
+	public static final String VERSION_ATTR = "Version";
 
 	@PostConstruct
 	public void init() {
@@ -75,25 +85,23 @@ public class DynamoDbUserDaoImpl implements UserDao {
 	public void save(User user)
 			throws UserExistsException, DataSourceTableDoesNotExistException {
 		try {
-			// See if User item exists
-			User existing = this.find(user.getEmail());
-
-			// If the user exists, throw an exception
-			if(existing != null) {
-				throw new UserExistsException();
-			}
-
 			// Convert the User object to a Map. The DynamoDB PutItemRequest object
 			// requires the Item to be in the Map<String, AttributeValue> structure
 			Map<String, AttributeValue> userItem = getMapFromUser(user);
 
-			// Create a request to save and return the user
+			// Create a request to save the user only if no item with this
+			// e-mail address exists, so concurrent sign-ups can't overwrite
+			// each other and no read is needed first
 			PutItemRequest putItemRequest = new PutItemRequest()
 												.withTableName(config.getProperty(ConfigurationSettings.ConfigProps.DDB_USERS_TABLE))
-												.withItem(userItem);
+												.withItem(userItem)
+												.addExpectedEntry(HASH_KEY_NAME, new ExpectedAttributeValue(false));
 
 			// Save user
 			dynamoClient.putItem(putItemRequest);
+		} catch (ConditionalCheckFailedException ccfe) {
+			// The user exists
+			throw new UserExistsException();
 		} catch (ResourceNotFoundException rnfe) {
 			throw new DataSourceTableDoesNotExistException(config.getProperty(ConfigurationSettings.ConfigProps.DDB_USERS_TABLE));
 		} catch (AmazonServiceException ase) {
@@ -101,8 +109,16 @@ public class DynamoDbUserDaoImpl implements UserDao {
 		}
 	}
 
+	/**
+	 * Write only the profile attributes to the existing item: nickname and
+	 * tagline are set, or removed when empty; the password and profile pic
+	 * are only set when a new one is given. The item's version must still be
+	 * the one the user was read with.
+	 *
+	 * @return the user as stored after the update
+	 */
 	@Override
-	public void update(User user) throws DataSourceTableDoesNotExistException {
+	public User update(User user) throws UserDoesNotExistException, DataSourceTableDoesNotExistException {
 		try {
 			// If the object includes a profile pic file, upload it to S3
 			if(user.getprofilePicData() != null && user.getprofilePicData().getSize() > 0) {
@@ -114,16 +130,39 @@ public class DynamoDbUserDaoImpl implements UserDao {
 				}
 			}
 
-			// Convert the User object to a Map
-			Map<String, AttributeValue> userItem = getMapFromUser(user);
-
-			// Create a request to save and return the user
-			PutItemRequest putItemRequest = new PutItemRequest()
-												.withItem(userItem)
-												.withTableName(config.getProperty(ConfigurationSettings.ConfigProps.DDB_USERS_TABLE));
-
-			// Save user
-			dynamoClient.putItem(putItemRequest);
+			Map<String, AttributeValueUpdate> updates = new HashMap<String, AttributeValueUpdate>();
+			putOrDelete(updates, NICKNAME_ATTR, user.getNickname());
+			putOrDelete(updates, TAGLINE_ATTR, user.getTagline());
+			if(null != user.getPassword() && !user.getPassword().isEmpty())
+				updates.put(PASSWORD_ATTR, new AttributeValueUpdate(new AttributeValue(user.getPassword()), AttributeAction.PUT));
+			if(null != user.getProfilePicKey() && !user.getProfilePicKey().isEmpty())
+				updates.put(PROFILE_PIC_KEY_ATTR, new AttributeValueUpdate(new AttributeValue(user.getProfilePicKey()), AttributeAction.PUT));
+			updates.put(VERSION_ATTR, new AttributeValueUpdate(new AttributeValue().withN("1"), AttributeAction.ADD));
+
+			// Only update an existing user, at the version it was read at.
+			// Items written before versioning have no version yet.
+			Map<String, ExpectedAttributeValue> expected = new HashMap<String, ExpectedAttributeValue>();
+			expected.put(HASH_KEY_NAME, new ExpectedAttributeValue(new AttributeValue(user.getEmail())));
+			expected.put(VERSION_ATTR, user.getVersion() == null
+					? new ExpectedAttributeValue(false)
+					: new ExpectedAttributeValue(new AttributeValue().withN(user.getVersion().toString())));
+
+			UpdateItemRequest updateItemRequest = new UpdateItemRequest()
+												.withTableName(config.getProperty(ConfigurationSettings.ConfigProps.DDB_USERS_TABLE))
+												.addKeyEntry(HASH_KEY_NAME, new AttributeValue(user.getEmail()))
+												.withAttributeUpdates(updates)
+												.withExpected(expected)
+												.withReturnValues(ReturnValue.ALL_NEW);
+
+			// Update user
+			UpdateItemResult updateItemResult = dynamoClient.updateItem(updateItemRequest);
+			return getUserFromMap(updateItemResult.getAttributes());
+		} catch (ConditionalCheckFailedException ccfe) {
+			// Either the user is gone or it was changed since it was read
+			if (find(user.getEmail()) == null) {
+				throw new UserDoesNotExistException();
+			}
+			throw new UserModifiedException();
 		} catch (ResourceNotFoundException rnfe) {
 			throw new DataSourceTableDoesNotExistException(config.getProperty(ConfigurationSettings.ConfigProps.DDB_USERS_TABLE));
 		} catch (AmazonServiceException ase) {
@@ -132,6 +171,13 @@ public class DynamoDbUserDaoImpl implements UserDao {
 
 	}
 
+	private static void putOrDelete(Map<String, AttributeValueUpdate> updates, String name, String value) {
+		if(null != value && !value.isEmpty())
+			updates.put(name, new AttributeValueUpdate(new AttributeValue(value), AttributeAction.PUT));
+		else
+			updates.put(name, new AttributeValueUpdate().withAction(AttributeAction.DELETE));
+	}
+
 	@Override
 	public User find(String email) throws DataSourceTableDoesNotExistException {
 		try {
@@ -197,6 +243,9 @@ public class DynamoDbUserDaoImpl implements UserDao {
 		if (null != userItem.get(PROFILE_PIC_KEY_ATTR))
 			user.setProfilePicKey((userItem.get(PROFILE_PIC_KEY_ATTR).getS()));
 
+		if (null != userItem.get(VERSION_ATTR))
+			user.setVersion(Long.valueOf(userItem.get(VERSION_ATTR).getN()));
+
 		return user;
 	}
 
@@ -225,6 +274,8 @@ public class DynamoDbUserDaoImpl implements UserDao {
 		if(null != user.getProfilePicKey() && true != user.getProfilePicKey().isEmpty())
 			userItem.put(PROFILE_PIC_KEY_ATTR, new AttributeValue(user.getProfilePicKey()));
 
+		userItem.put(VERSION_ATTR, new AttributeValue().withN(user.getVersion() == null ? "1" : user.getVersion().toString()));
+
 		return userItem;
     }
 
@@ -14,9 +14,14 @@
  */
 package com.amediamanager.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.hibernate.Query;
+import org.hibernate.SQLQuery;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,12 +29,16 @@ import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.amediamanager.domain.Tag;
+import com.amediamanager.domain.UserTagCount;
 import com.amediamanager.domain.Video;
 
 @Repository
 @Transactional
 public class RDSTagDaoImpl implements TagDao {
 
+	/** Rows per multi-row INSERT statement in {@link #upsert(Collection)}. */
+	private static final int UPSERT_ROWS_PER_STATEMENT = 100;
+
 	@Autowired
     private SessionFactory sessionFactory;
 	
@@ -42,11 +51,91 @@ public class RDSTagDaoImpl implements TagDao {
 		sessionFactory.getCurrentSession().saveOrUpdate(t);
 	}
 
+	/**
+	 * Insert the given tags, or rename them if they already exist, with one
+	 * multi-row INSERT ... ON DUPLICATE KEY UPDATE per 100 tags, then load
+	 * them back into the session with a single IN query. Callers should
+	 * attach the returned, managed instances instead of the ones passed in so
+	 * that cascading doesn't issue a select and insert per tag.
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Tag> upsert(Collection<Tag> tags) {
+		Map<String, Tag> byId = new LinkedHashMap<String, Tag>();
+		for (Tag tag : tags) {
+			byId.put(tag.getTagId(), tag);
+		}
+		if (byId.isEmpty()) {
+			return new ArrayList<Tag>();
+		}
+
+		List<Tag> unique = new ArrayList<Tag>(byId.values());
+		for (int from = 0; from < unique.size(); from += UPSERT_ROWS_PER_STATEMENT) {
+			List<Tag> chunk = unique.subList(from, Math.min(from + UPSERT_ROWS_PER_STATEMENT, unique.size()));
+
+			StringBuilder sql = new StringBuilder("INSERT INTO tags (tagId, name) VALUES ");
+			for (int i = 0; i < chunk.size(); i++) {
+				sql.append(i == 0 ? "(?, ?)" : ", (?, ?)");
+			}
+			sql.append(" ON DUPLICATE KEY UPDATE name = VALUES(name)");
+
+			SQLQuery query = getCurrentSession().createSQLQuery(sql.toString());
+			// Evicts the cached Tag region once the statement has run
+			query.addSynchronizedEntityClass(Tag.class);
+			int position = 0;
+			for (Tag tag : chunk) {
+				query.setString(position++, tag.getTagId());
+				query.setString(position++, tag.getName());
+			}
+			query.executeUpdate();
+		}
+
+		return getCurrentSession().createQuery("from Tag tag where tag.tagId in (:ids)")
+				.setParameterList("ids", byId.keySet())
+				.list();
+	}
+
+	/**
+	 * Add delta to the user's video count for each tag, creating missing rows
+	 * and dropping rows that reach zero. Runs in the caller's transaction.
+	 */
+	@Override
+	public void adjustTagCounts(String owner, Collection<String> tagIds, int delta) {
+		if (owner == null || tagIds.isEmpty() || delta == 0) {
+			return;
+		}
+
+		StringBuilder sql = new StringBuilder("INSERT INTO user_tag_counts (owner, tagId, videoCount) VALUES ");
+		int i = 0;
+		for (String tagId : tagIds) {
+			sql.append(i++ == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+		}
+		sql.append(" ON DUPLICATE KEY UPDATE videoCount = videoCount + VALUES(videoCount)");
+
+		SQLQuery query = getCurrentSession().createSQLQuery(sql.toString());
+		query.addSynchronizedEntityClass(UserTagCount.class);
+		int position = 0;
+		for (String tagId : tagIds) {
+			query.setString(position++, owner);
+			query.setString(position++, tagId);
+			query.setLong(position++, delta);
+		}
+		query.executeUpdate();
+
+		if (delta < 0) {
+			getCurrentSession().createSQLQuery("DELETE FROM user_tag_counts WHERE owner = :owner AND videoCount <= 0")
+					.addSynchronizedEntityClass(UserTagCount.class)
+					.setParameter("owner", owner)
+					.executeUpdate();
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	@Transactional(readOnly = true)
 	public List<TagCount> getTagsForUser(String u) {
-		Query query = sessionFactory.getCurrentSession().createQuery("select new com.amediamanager.dao.TagCount(tag.tagId, tag.name, count(video.id)) from Tag tag join tag.videos video where video.owner = :owner group by tag.tagId");
+		// Primary key range scan on user_tag_counts, then a primary key join to tags
+		Query query = sessionFactory.getCurrentSession().createQuery("select new com.amediamanager.dao.TagCount(tag.tagId, tag.name, c.videoCount) from UserTagCount c, Tag tag where c.owner = :owner and tag.tagId = c.tagId order by c.tagId");
 		query.setParameter("owner", u);
 		return query.list();
 	}
@@ -54,10 +143,21 @@ public class RDSTagDaoImpl implements TagDao {
 	@SuppressWarnings("unchecked")
 	@Override
 	@Transactional(readOnly = true)
-	public List<Video> getVideosForUserByTag(String user, String tagId) {
-		Query query = sessionFactory.getCurrentSession().createQuery("select video from Video video join video.tags tag where video.owner = :owner and tag.tagId = :tag");
+	public VideoPage getVideosForUserByTag(String user, String tagId, VideoCursor after, int limit) {
+		StringBuilder hql = new StringBuilder("select " + VideoProjection.COLUMNS + " from Video video join video.tags tag where video.owner = :owner and tag.tagId = :tag");
+		if (after != null) {
+			hql.append(" and (video.uploadedDate < :afterDate or (video.uploadedDate = :afterDate and video.id < :afterId))");
+		}
+		hql.append(" order by video.uploadedDate desc, video.id desc");
+
+		Query query = sessionFactory.getCurrentSession().createQuery(hql.toString());
 		query.setParameter("owner", user);
 		query.setParameter("tag", tagId);
-		return query.list();
+		if (after != null) {
+			query.setParameter("afterDate", after.getUploadedDate());
+			query.setParameter("afterId", after.getVideoId());
+		}
+		query.setMaxResults(limit + 1);
+		return VideoPage.fromResults(VideoProjection.toVideos(sessionFactory.getCurrentSession(), query.list()), limit);
 	}
 }
@@ -56,48 +56,29 @@ public class RdsDbEndpointRetriever implements DbEndpointRetriever {
 	 */
 	@Override
 	public List<Endpoint> getReadReplicaEndpoints(String dbInstanceId) {
-		List<Endpoint> endpoints = null;
+		List<Endpoint> endpoints = new ArrayList<Endpoint>();
 		
-		DescribeDBInstancesResult result = rds.describeDBInstances(new DescribeDBInstancesRequest().withDBInstanceIdentifier(dbInstanceId));
-		
-		// If the master exist and has any read replicas
-		if(result.getDBInstances().size() == 1 && result.getDBInstances().get(0).getReadReplicaDBInstanceIdentifiers().size() > 0) {
-			endpoints = new ArrayList<Endpoint>();
-			for(String readReplicaId : result.getDBInstances().get(0).getReadReplicaDBInstanceIdentifiers()) {
-				DBInstance rrInstance = rds.describeDBInstances(new DescribeDBInstancesRequest().withDBInstanceIdentifier(readReplicaId)).getDBInstances().get(0);
-				if (rrInstance.getDBInstanceStatus().equals("available")) {
-					endpoints.add(rrInstance.getEndpoint());
+		// Page through all instances once rather than describing each replica
+		// individually, so the cost doesn't grow with the number of replicas.
+		String marker = null;
+		do {
+			DescribeDBInstancesResult result = rds.describeDBInstances(new DescribeDBInstancesRequest().withMarker(marker));
+			
+			for (DBInstance instance : result.getDBInstances()) {
+				if (dbInstanceId.equals(instance.getReadReplicaSourceDBInstanceIdentifier())
+						&& "available".equals(instance.getDBInstanceStatus())) {
+					endpoints.add(instance.getEndpoint());
 				}
 			}
-			if(endpoints.size() == 0) {
-				endpoints = null;
-			}
+			marker = result.getMarker();
 			
+		} while (marker != null);
+		
+		if(endpoints.size() == 0) {
+			endpoints = null;
 		}
 		
 		return endpoints;
 	}
-
-	/*
-	# If the master DB identifier were available in the constructor, this would be a more efficient way to retrieve
-	# the master and read replica endpoints as it limits the number of API requests. 
-	
-	String marker = null;			
-	do {
-		DescribeDBInstancesResult result = rds.describeDBInstances(new DescribeDBInstancesRequest().withMarker(marker));
-		
-		for (DBInstance instance : result.getDBInstances()) {
-			if (masterId.equals(instance.getDBInstanceIdentifier())) {
-				master = instance.getEndpoint();
-			} else if (masterId.equals(instance.getReadReplicaSourceDBInstanceIdentifier())) {
-				if (instance.getDBInstanceStatus().equals("available")) {
-					replicas.add(instance.getEndpoint());
-				}
-			}
-		}			
-		marker = result.getMarker();
-		
-	} while (marker != null);
-	*/
 	
 }
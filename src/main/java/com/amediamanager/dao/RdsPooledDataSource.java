@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Date;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.rds.model.Endpoint;
+import com.amediamanager.config.ConfigurationSettings;
+import com.amediamanager.metrics.MetricBatcher;
+
+/**
+ * A pooled DataSource that retrieves DB connection information from the
+ * ConfigurationSettings class and discovers the RDS master through the
+ * DbEndpointRetriever. Pool sizing, validation and idle eviction are
+ * configured on the bean definition; read replica pools are created from it
+ * with {@link #forEndpoint(Endpoint)} so they share the same settings. The
+ * time spent waiting for a pooled connection is reported to CloudWatch
+ * through the MetricBatcher.
+ */
+public class RdsPooledDataSource extends BasicDataSource {
+    private static final Logger LOG = LoggerFactory.getLogger(RdsPooledDataSource.class);
+
+    @Autowired
+    ConfigurationSettings config;
+
+    @Autowired
+    com.amediamanager.dao.challenge.RdsDbEndpointRetriever dbEndpointRetriever;
+
+    @Autowired
+    MetricBatcher metricBatcher;
+
+    private String poolName = "master";
+
+    @PostConstruct
+    public void init() {
+        setUsername(config.getProperty(ConfigurationSettings.ConfigProps.RDS_USERNAME));
+        setPassword(config.getProperty(ConfigurationSettings.ConfigProps.RDS_PASSWORD));
+        initializeDataSource();
+    }
+
+    /**
+     * Create a new pool for the given endpoint (e.g. a read replica) using the
+     * same credentials, sizing and validation settings as this pool.
+     * @param endpoint the RDS endpoint to connect to
+     * @return an unstarted pool; connections are opened on first use
+     */
+    public RdsPooledDataSource forEndpoint(Endpoint endpoint) {
+        RdsPooledDataSource pool = new RdsPooledDataSource();
+        pool.config = config;
+        pool.dbEndpointRetriever = dbEndpointRetriever;
+        pool.metricBatcher = metricBatcher;
+        // Replicas may share a host, e.g. behind a proxy, so the port is part of the name
+        pool.poolName = endpoint.getAddress() + ":" + endpoint.getPort();
+
+        pool.setDriverClassName(getDriverClassName());
+        pool.setUrl(buildUrl(endpoint));
+        pool.setUsername(getUsername());
+        pool.setPassword(getPassword());
+        pool.setInitialSize(getInitialSize());
+        pool.setMinIdle(getMinIdle());
+        pool.setMaxIdle(getMaxIdle());
+        pool.setMaxActive(getMaxActive());
+        pool.setMaxWait(getMaxWait());
+        pool.setValidationQuery(getValidationQuery());
+        pool.setValidationQueryTimeout(getValidationQueryTimeout());
+        pool.setTestOnBorrow(getTestOnBorrow());
+        pool.setTestWhileIdle(getTestWhileIdle());
+        pool.setTimeBetweenEvictionRunsMillis(getTimeBetweenEvictionRunsMillis());
+        pool.setMinEvictableIdleTimeMillis(getMinEvictableIdleTimeMillis());
+        pool.setNumTestsPerEvictionRun(getNumTestsPerEvictionRun());
+        pool.setDefaultReadOnly(true);
+        return pool;
+    }
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        final long startTime = System.currentTimeMillis();
+        boolean success = false;
+        try {
+            Connection connection = super.getConnection();
+            success = true;
+            return connection;
+        } finally {
+            emitPoolWaitMetrics(startTime, success);
+        }
+    }
+
+    /**
+     * Periodically publish the number of active and idle connections so pool
+     * saturation is visible next to the wait time.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void emitPoolSizeMetrics() {
+        final long now = System.currentTimeMillis();
+        metricBatcher.addDatum("AMM", newDatum("Pool", now)
+                .withMetricName("ActiveConnections")
+                .withUnit(StandardUnit.Count)
+                .withValue((double) getNumActive()));
+        metricBatcher.addDatum("AMM", newDatum("Pool", now)
+                .withMetricName("IdleConnections")
+                .withUnit(StandardUnit.Count)
+                .withValue((double) getNumIdle()));
+    }
+
+    private void emitPoolWaitMetrics(long startTime, boolean success) {
+        metricBatcher.addDatum("AMM", newDatum("getConnection", startTime)
+                .withMetricName("PoolWait")
+                .withUnit(StandardUnit.Milliseconds)
+                .withValue((double) System.currentTimeMillis() - startTime));
+        metricBatcher.addDatum("AMM", newDatum("getConnection", startTime)
+                .withMetricName("Success")
+                .withUnit(StandardUnit.Count)
+                .withValue(success ? 1.0 : 0.0));
+    }
+
+    private MetricDatum newDatum(String operation, long timestamp) {
+        return new MetricDatum().withDimensions(new Dimension().withName("Svc")
+                                                               .withValue(getClass().getSimpleName()),
+                                                new Dimension().withName("Operation")
+                                                               .withValue(operation),
+                                                new Dimension().withName("Pool")
+                                                               .withValue(poolName))
+                                .withTimestamp(new Date(timestamp));
+    }
+
+    private void initializeDataSource() {
+        // Use the RDS DB and the dbEndpointRetriever to discover the URL of the
+        // master database. Read replicas get their own pools, see
+        // RdsReplicaRoutingDataSource.
+        final String masterId = config
+                .getProperty(ConfigurationSettings.ConfigProps.RDS_INSTANCEID);
+
+        try {
+            Endpoint master = dbEndpointRetriever.getMasterDbEndpoint(masterId);
+
+            if (master != null) {
+            	LOG.info("Detected RDS Master database");
+                super.setDriverClassName("com.mysql.jdbc.Driver");
+                String connectionString = buildUrl(master);
+                LOG.info("MySQL Connection String: " + connectionString);
+                super.setUrl(connectionString);
+            } else {
+            	LOG.warn("No RDS master database detected!");
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to initialize datasource.", e);
+        }
+    }
+
+    private String buildUrl(Endpoint endpoint) {
+        // rewriteBatchedStatements lets the driver send a JDBC batch of inserts
+        // as a single multi-row statement
+        return "jdbc:mysql://" + endpoint.getAddress() + ":" + endpoint.getPort()
+                + "/" + config.getProperty(ConfigurationSettings.ConfigProps.RDS_DATABASE)
+                + "?rewriteBatchedStatements=true";
+    }
+}
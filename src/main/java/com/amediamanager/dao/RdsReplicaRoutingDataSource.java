@@ -0,0 +1,317 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.dao;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.rds.model.Endpoint;
+import com.amediamanager.config.ConfigurationSettings;
+import com.amediamanager.metrics.MetricBatcher;
+
+/**
+ * Routes connections for read-only transactions (i.e.
+ * {@code @Transactional(readOnly = true)}) to a healthy RDS read replica and
+ * everything else to the master. Each replica gets its own pool, created from
+ * the master pool's settings. Replicas are checked periodically and taken out
+ * of rotation when they are unreachable or lag the master by more than
+ * {@code maxReplicaLagSeconds}; if no replica is usable, reads go to the master.
+ * The replica set itself is re-discovered every minute, so replicas can be
+ * added or removed without a restart. A new replica only enters rotation once
+ * a health check has seen it within the lag limit, so a replica that is still
+ * catching up after being created never serves reads.
+ *
+ * The read-only flag is only known once the transaction has started, so this
+ * DataSource must be wrapped in a LazyConnectionDataSourceProxy.
+ */
+public class RdsReplicaRoutingDataSource extends AbstractDataSource {
+    private static final Logger LOG = LoggerFactory.getLogger(RdsReplicaRoutingDataSource.class);
+
+    public static enum Strategy {
+        ROUND_ROBIN,
+        LEAST_LOADED
+    }
+
+    @Autowired
+    ConfigurationSettings config;
+
+    @Autowired
+    com.amediamanager.dao.challenge.RdsDbEndpointRetriever dbEndpointRetriever;
+
+    @Autowired
+    MetricBatcher metricBatcher;
+
+    @Autowired
+    RdsPooledDataSource master;
+
+    private Strategy strategy = Strategy.ROUND_ROBIN;
+    private int maxReplicaLagSeconds = 30;
+
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private volatile List<Replica> replicas = Collections.emptyList();
+
+    @PostConstruct
+    public void init() {
+        refreshTopology();
+    }
+
+    /**
+     * Re-discover the master's read replicas and swap the replica set in
+     * place. Known replicas keep their pools, new ones get a pool, and pools of
+     * replicas that went away are closed; connections already borrowed from
+     * them stay usable and are closed when they are returned.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void refreshTopology() {
+        final String masterId = config
+                .getProperty(ConfigurationSettings.ConfigProps.RDS_INSTANCEID);
+
+        List<Endpoint> endpoints;
+        try {
+            endpoints = dbEndpointRetriever.getReadReplicaEndpoints(masterId);
+        } catch (Exception e) {
+            LOG.warn("Failed to discover read replicas, keeping the current replica set.", e);
+            return;
+        }
+        if (endpoints == null) {
+            endpoints = Collections.emptyList();
+        }
+
+        synchronized (this) {
+            Map<String, Replica> current = new HashMap<String, Replica>();
+            for (Replica replica : replicas) {
+                current.put(replica.getAddress(), replica);
+            }
+
+            List<Replica> refreshed = new ArrayList<Replica>();
+            boolean added = false;
+            for (Endpoint endpoint : endpoints) {
+                Replica replica = current.remove(Replica.addressOf(endpoint));
+                if (replica == null) {
+                    replica = new Replica(endpoint, master.forEndpoint(endpoint));
+                    LOG.info("Adding read replica {}", replica.getAddress());
+                    added = true;
+                }
+                refreshed.add(replica);
+            }
+            replicas = Collections.unmodifiableList(refreshed);
+
+            for (Replica removed : current.values()) {
+                LOG.info("Removing read replica {}", removed.getAddress());
+                removed.close();
+            }
+
+            if (added) {
+                // Put new replicas in rotation now rather than at the next scheduled check
+                checkReplicaHealth();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        for (Replica replica : replicas) {
+            replica.close();
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            Replica replica = selectReplica();
+            if (replica != null) {
+                try {
+                    return replica.pool.getConnection();
+                } catch (SQLException e) {
+                    LOG.warn("Failed to connect to read replica {}, using master.", replica.getAddress(), e);
+                    replica.healthy = false;
+                }
+            }
+        }
+        return master.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return master.getConnection(username, password);
+    }
+
+    /**
+     * Check every replica's replication lag and take the ones that are
+     * unreachable or too far behind out of rotation.
+     */
+    @Scheduled(fixedDelay = 15000)
+    public void checkReplicaHealth() {
+        for (Replica replica : replicas) {
+            Integer lag = null;
+            try {
+                lag = replica.readReplicationLag();
+            } catch (SQLException e) {
+                LOG.warn("Health check failed for read replica {}", replica.getAddress(), e);
+            }
+
+            boolean healthy = lag != null && lag <= maxReplicaLagSeconds;
+            if (healthy != replica.healthy) {
+                LOG.info("Read replica {} is now {} (lag: {}s)",
+                        replica.getAddress(), healthy ? "in rotation" : "out of rotation", lag);
+            }
+            replica.lagSeconds = lag;
+            replica.healthy = healthy;
+
+            if (lag != null) {
+                metricBatcher.addDatum("AMM", newDatum(replica, "ReplicaLag")
+                        .withUnit(StandardUnit.Seconds)
+                        .withValue((double) lag));
+            }
+            metricBatcher.addDatum("AMM", newDatum(replica, "ReplicaHealthy")
+                    .withUnit(StandardUnit.Count)
+                    .withValue(healthy ? 1.0 : 0.0));
+            replica.pool.emitPoolSizeMetrics();
+        }
+    }
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public void setMaxReplicaLagSeconds(int maxReplicaLagSeconds) {
+        this.maxReplicaLagSeconds = maxReplicaLagSeconds;
+    }
+
+    private Replica selectReplica() {
+        List<Replica> candidates = new ArrayList<Replica>(replicas.size());
+        for (Replica replica : replicas) {
+            if (replica.healthy) {
+                candidates.add(replica);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        if (strategy == Strategy.LEAST_LOADED) {
+            Replica leastLoaded = candidates.get(0);
+            for (Replica replica : candidates) {
+                if (replica.pool.getNumActive() < leastLoaded.pool.getNumActive()) {
+                    leastLoaded = replica;
+                }
+            }
+            return leastLoaded;
+        }
+        int index = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % candidates.size();
+        return candidates.get(index);
+    }
+
+    private MetricDatum newDatum(Replica replica, String metricName) {
+        return new MetricDatum().withDimensions(new Dimension().withName("Svc")
+                                                               .withValue(getClass().getSimpleName()),
+                                                new Dimension().withName("Pool")
+                                                               .withValue(replica.getAddress()))
+                                .withMetricName(metricName)
+                                .withTimestamp(new Date());
+    }
+
+    /**
+     * A read replica endpoint and the pool connected to it.
+     */
+    public static class Replica {
+        private final Endpoint endpoint;
+        private final RdsPooledDataSource pool;
+        /** Out of rotation until the first health check passes */
+        private volatile boolean healthy = false;
+        private volatile Integer lagSeconds;
+
+        Replica(Endpoint endpoint, RdsPooledDataSource pool) {
+            this.endpoint = endpoint;
+            this.pool = pool;
+        }
+
+        public String getAddress() {
+            return addressOf(endpoint);
+        }
+
+        static String addressOf(Endpoint endpoint) {
+            return endpoint.getAddress() + ":" + endpoint.getPort();
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        public Integer getLagSeconds() {
+            return lagSeconds;
+        }
+
+        /**
+         * @return Seconds_Behind_Master, or null if replication is not running
+         */
+        Integer readReplicationLag() throws SQLException {
+            Connection connection = null;
+            Statement statement = null;
+            ResultSet results = null;
+            try {
+                connection = pool.getConnection();
+                statement = connection.createStatement();
+                results = statement.executeQuery("SHOW SLAVE STATUS");
+                if (results.next()) {
+                    int lag = results.getInt("Seconds_Behind_Master");
+                    return results.wasNull() ? null : lag;
+                }
+                return null;
+            } finally {
+                try {
+                    if (results != null) results.close();
+                    if (statement != null) statement.close();
+                    if (connection != null) connection.close();
+                } catch (SQLException x) {
+                }
+            }
+        }
+
+        void close() {
+            try {
+                pool.close();
+            } catch (SQLException e) {
+                LOG.warn("Failed to close pool for read replica {}", getAddress(), e);
+            }
+        }
+    }
+}
@@ -14,52 +14,116 @@
  */
 package com.amediamanager.dao;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.hibernate.Query;
+import org.hibernate.SQLQuery;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.amediamanager.domain.Privacy;
+import com.amediamanager.domain.Tag;
 import com.amediamanager.domain.Video;
 
 @Repository
 @Transactional
 public class RdsVideoDaoImpl implements VideoDao {
+    private static final Logger LOG = LoggerFactory.getLogger(RdsVideoDaoImpl.class);
+
+    /** Rows per multi-row INSERT statement during a bulk import. */
+    private static final int ROWS_PER_STATEMENT = 500;
+
+    private static final Type[] VIDEO_COLUMN_TYPES = {
+        StandardBasicTypes.STRING, StandardBasicTypes.STRING, StandardBasicTypes.STRING,
+        StandardBasicTypes.STRING, StandardBasicTypes.STRING, StandardBasicTypes.TIMESTAMP,
+        StandardBasicTypes.STRING, StandardBasicTypes.STRING, StandardBasicTypes.STRING,
+        StandardBasicTypes.STRING, StandardBasicTypes.STRING, StandardBasicTypes.DATE
+    };
+
+    private static final Type[] STRING_PAIR_TYPES = {
+        StandardBasicTypes.STRING, StandardBasicTypes.STRING
+    };
+
+    private static final Type[] TAG_COUNT_TYPES = {
+        StandardBasicTypes.STRING, StandardBasicTypes.STRING, StandardBasicTypes.LONG
+    };
 
     @Autowired
     private SessionFactory sessionFactory;
 
+    @Autowired
+    private TagDao tagDao;
+
     public Session getCurrentSession() {
         return sessionFactory.getCurrentSession();
     }
 
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
     @Override
-    public void save(Video video) {
+    public Video save(Video video) {
+        Video previous = updateTagCounts(video.getId(), video.getOwner(), video.getTags());
+        attachTags(video);
         getCurrentSession().saveOrUpdate(video);
+        return previous;
     }
 
     @Override
-    public void update(Video video) {
+    public Video update(Video video) {
+        Video previous = updateTagCounts(video.getId(), video.getOwner(), video.getTags());
+        attachTags(video);
         getCurrentSession().saveOrUpdate(video);
+        return previous;
     }
 
     @Override
-    public void delete(Video video) {
+    public Video delete(Video video) {
+        Video previous = updateTagCounts(video.getId(), null, null);
     	getCurrentSession().delete(video);
+    	return previous;
     }
-    
+
     @SuppressWarnings("unchecked")
     @Override
     @Transactional(readOnly = true)
-    public List<Video> findByUserId(String userId) {
-        List<Video> videos = getCurrentSession().createQuery(
-                "from Video as video where video.owner = :owner")
-                .setParameter("owner", userId)
-                .list();
+    public VideoPage findByUserId(String userId, VideoCursor after, int limit) {
+        StringBuilder hql = new StringBuilder("select " + VideoProjection.COLUMNS
+                + " from Video as video where video.owner = :owner");
+        if (after != null) {
+            hql.append(" and (video.uploadedDate < :afterDate"
+                    + " or (video.uploadedDate = :afterDate and video.id < :afterId))");
+        }
+        hql.append(" order by video.uploadedDate desc, video.id desc");
 
-        return videos;
+        Query query = getCurrentSession().createQuery(hql.toString())
+                .setParameter("owner", userId)
+                .setMaxResults(limit + 1);
+        if (after != null) {
+            query.setParameter("afterDate", after.getUploadedDate())
+                 .setParameter("afterId", after.getVideoId());
+        }
+        return VideoPage.fromResults(VideoProjection.toVideos(getCurrentSession(), query.list()), limit);
     }
 
     @SuppressWarnings("unchecked")
@@ -69,6 +133,8 @@ public class RdsVideoDaoImpl implements VideoDao {
        List<Video> videos = getCurrentSession().createQuery(
                 "from Video as video where video.transcodeJobId = :jobId")
                 .setParameter("jobId", jobId)
+                .setCacheable(true)
+                .setCacheRegion("query.videoByTranscodeJob")
                 .list();
        return videos.isEmpty() ? null : videos.get(0);
     }
@@ -78,4 +144,260 @@ public class RdsVideoDaoImpl implements VideoDao {
     public Video findById(String id) {
         return (Video) getCurrentSession().get(Video.class, id);
     }
+
+    /**
+     * Bring user_tag_counts in line with the video's new owner and tags by
+     * diffing them against what is stored now. Must run before the video is
+     * written, in the same transaction. The video's row is locked first, so a
+     * concurrent write of the same video waits for this transaction instead
+     * of diffing against the same old state and applying the change twice.
+     * @return the video's id, owner and tags as stored, or null if it is new
+     */
+    @SuppressWarnings("unchecked")
+    private Video updateTagCounts(String videoId, String newOwner, Set<Tag> newTags) {
+        Video previous = null;
+        String oldOwner = null;
+        Set<String> oldTagIds = new HashSet<String>();
+        if (videoId != null && lockVideo(videoId)) {
+            List<Object[]> rows = getCurrentSession().createSQLQuery(
+                    "SELECT v.owner, t.tagId, t.name FROM videos v"
+                    + " LEFT JOIN videos_tags vt ON vt.videoId = v.videoId"
+                    + " LEFT JOIN tags t ON t.tagId = vt.tagId"
+                    + " WHERE v.videoId = :videoId")
+                    .setParameter("videoId", videoId)
+                    .list();
+            previous = new Video();
+            previous.setId(videoId);
+            previous.setTags(new HashSet<Tag>());
+            for (Object[] row : rows) {
+                oldOwner = (String) row[0];
+                if (row[1] != null) {
+                    oldTagIds.add((String) row[1]);
+                    Tag tag = new Tag();
+                    tag.setTagId((String) row[1]);
+                    tag.setName((String) row[2]);
+                    previous.getTags().add(tag);
+                }
+            }
+            previous.setOwner(oldOwner);
+        }
+
+        Set<String> newTagIds = new HashSet<String>();
+        if (newTags != null) {
+            for (Tag tag : newTags) {
+                newTagIds.add(tag.getTagId());
+            }
+        }
+
+        if (oldOwner != null && !oldOwner.equals(newOwner)) {
+            tagDao.adjustTagCounts(oldOwner, oldTagIds, -1);
+            tagDao.adjustTagCounts(newOwner, newTagIds, 1);
+        } else {
+            Set<String> removed = new HashSet<String>(oldTagIds);
+            removed.removeAll(newTagIds);
+            Set<String> added = new HashSet<String>(newTagIds);
+            added.removeAll(oldTagIds);
+            tagDao.adjustTagCounts(newOwner, removed, -1);
+            tagDao.adjustTagCounts(newOwner, added, 1);
+        }
+        return previous;
+    }
+
+    /**
+     * Lock the video's row until the end of the transaction.
+     * @return false if there is no such video
+     */
+    private boolean lockVideo(String videoId) {
+        return !getCurrentSession().createSQLQuery("SELECT videoId FROM videos WHERE videoId = :videoId FOR UPDATE")
+                .setParameter("videoId", videoId)
+                .list()
+                .isEmpty();
+    }
+
+    /**
+     * Upsert the video's tags in bulk and swap in the managed instances, so
+     * the cascade has nothing left to do for them and only the (batched)
+     * videos_tags inserts remain.
+     */
+    private void attachTags(Video video) {
+        if (video.getTags() == null || video.getTags().isEmpty()) {
+            return;
+        }
+        video.setTags(new HashSet<Tag>(tagDao.upsert(video.getTags())));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    @Transactional(readOnly = true)
+    public VideoPage findAllPublic(VideoCursor after, int limit) {
+        // Served by the (privacy, uploadedDate, videoId) index
+        StringBuilder hql = new StringBuilder("select " + VideoProjection.COLUMNS
+                + " from Video as video where video.privacy = :privacy");
+        if (after != null) {
+            hql.append(" and (video.uploadedDate < :afterDate"
+                    + " or (video.uploadedDate = :afterDate and video.id < :afterId))");
+        }
+        hql.append(" order by video.uploadedDate desc, video.id desc");
+
+        Query query = getCurrentSession().createQuery(hql.toString())
+                .setParameter("privacy", Privacy.PUBLIC)
+                .setMaxResults(limit + 1);
+        if (after != null) {
+            query.setParameter("afterDate", after.getUploadedDate())
+                 .setParameter("afterId", after.getVideoId());
+        }
+        return VideoPage.fromResults(VideoProjection.toVideos(getCurrentSession(), query.list()), limit);
+    }
+
+    /**
+     * Import videos outside of the persistence context. Each chunk is written
+     * in its own transaction through a StatelessSession with multi-row
+     * INSERTs, so memory use stays flat no matter how many videos are
+     * imported. Videos that already exist are skipped, which makes a failed
+     * import safe to re-run. Tags are upserted once per import and the
+     * user_tag_counts are incremented per chunk. Videos without a privacy
+     * setting are imported as private.
+     * @return the number of videos inserted
+     */
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public int bulkImport(Iterator<Video> videos, int chunkSize, ImportListener listener) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive, was " + chunkSize);
+        }
+        final Set<String> importedTags = new HashSet<String>();
+        int imported = 0;
+
+        StatelessSession session = sessionFactory.openStatelessSession();
+        try {
+            List<Video> chunk = new ArrayList<Video>(chunkSize);
+            while (videos.hasNext()) {
+                chunk.add(videos.next());
+                if (chunk.size() == chunkSize || !videos.hasNext()) {
+                    Collection<Video> inserted = importChunk(session, chunk, importedTags);
+                    imported += inserted.size();
+                    chunk.clear();
+                    LOG.info("Imported {} videos", imported);
+
+                    if (listener != null && !inserted.isEmpty()) {
+                        Set<String> owners = new HashSet<String>();
+                        for (Video video : inserted) {
+                            owners.add(video.getOwner());
+                        }
+                        listener.chunkCommitted(owners);
+                    }
+                }
+            }
+        } finally {
+            session.close();
+        }
+
+        // Nothing above went through the second-level cache
+        sessionFactory.getCache().evictEntityRegion(Tag.class);
+        sessionFactory.getCache().evictDefaultQueryRegion();
+        sessionFactory.getCache().evictQueryRegions();
+        return imported;
+    }
+
+    /**
+     * @return the videos inserted, i.e. the chunk less those that exist
+     */
+    @SuppressWarnings("unchecked")
+    private Collection<Video> importChunk(StatelessSession session, List<Video> chunk, Set<String> importedTags) {
+        Map<String, Video> byId = new LinkedHashMap<String, Video>();
+        for (Video video : chunk) {
+            byId.put(video.getId(), video);
+        }
+
+        Transaction transaction = session.beginTransaction();
+        try {
+            List<String> existing = session.createSQLQuery("SELECT videoId FROM videos WHERE videoId IN (:ids)")
+                    .setParameterList("ids", byId.keySet())
+                    .list();
+            byId.keySet().removeAll(existing);
+
+            List<Object[]> videoRows = new ArrayList<Object[]>();
+            Map<String, Object[]> tagRows = new LinkedHashMap<String, Object[]>();
+            List<Object[]> videoTagRows = new ArrayList<Object[]>();
+            Map<List<String>, Long> tagCounts = new LinkedHashMap<List<String>, Long>();
+            for (Video video : byId.values()) {
+                videoRows.add(new Object[] {
+                    video.getId(), video.getTranscodeJobId(), video.getOriginalKey(),
+                    video.getBucket(), video.getOwner(),
+                    video.getUploadedDate() == null ? new Date() : video.getUploadedDate(),
+                    video.getPrivacy() == null ? Privacy.PRIVATE.name() : video.getPrivacy().name(),
+                    video.getTitle(), video.getDescription(),
+                    video.getThumbnailKey(), video.getPreviewKey(), video.getCreatedDate()
+                });
+                if (video.getTags() == null) {
+                    continue;
+                }
+                Set<String> videoTagIds = new HashSet<String>();
+                for (Tag tag : video.getTags()) {
+                    if (!videoTagIds.add(tag.getTagId())) {
+                        continue;
+                    }
+                    if (!importedTags.contains(tag.getTagId())) {
+                        tagRows.put(tag.getTagId(), new Object[] { tag.getTagId(), tag.getName() });
+                    }
+                    videoTagRows.add(new Object[] { tag.getTagId(), video.getId() });
+
+                    List<String> ownerTag = Arrays.asList(video.getOwner(), tag.getTagId());
+                    Long count = tagCounts.get(ownerTag);
+                    tagCounts.put(ownerTag, count == null ? 1L : count + 1);
+                }
+            }
+
+            insertRows(session, "INSERT INTO tags (tagId, name) VALUES ",
+                    " ON DUPLICATE KEY UPDATE name = VALUES(name)",
+                    STRING_PAIR_TYPES, new ArrayList<Object[]>(tagRows.values()));
+            insertRows(session, "INSERT INTO videos (videoId, transcodeJobId, originalKey, bucket, owner,"
+                    + " uploadedDate, privacy, title, description, thumbnailKey, previewKey, createdDate) VALUES ",
+                    "", VIDEO_COLUMN_TYPES, videoRows);
+            insertRows(session, "INSERT INTO videos_tags (tagId, videoId) VALUES ",
+                    "", STRING_PAIR_TYPES, videoTagRows);
+
+            List<Object[]> tagCountRows = new ArrayList<Object[]>(tagCounts.size());
+            for (Map.Entry<List<String>, Long> entry : tagCounts.entrySet()) {
+                tagCountRows.add(new Object[] { entry.getKey().get(0), entry.getKey().get(1), entry.getValue() });
+            }
+            insertRows(session, "INSERT INTO user_tag_counts (owner, tagId, videoCount) VALUES ",
+                    " ON DUPLICATE KEY UPDATE videoCount = videoCount + VALUES(videoCount)",
+                    TAG_COUNT_TYPES, tagCountRows);
+
+            transaction.commit();
+            importedTags.addAll(tagRows.keySet());
+        } catch (RuntimeException e) {
+            transaction.rollback();
+            throw e;
+        }
+        return byId.values();
+    }
+
+    private void insertRows(StatelessSession session, String insert, String onDuplicate, Type[] types,
+            List<Object[]> rows) {
+        for (int from = 0; from < rows.size(); from += ROWS_PER_STATEMENT) {
+            List<Object[]> statementRows = rows.subList(from, Math.min(from + ROWS_PER_STATEMENT, rows.size()));
+
+            StringBuilder sql = new StringBuilder(insert);
+            StringBuilder placeholders = new StringBuilder("(?");
+            for (int i = 1; i < types.length; i++) {
+                placeholders.append(", ?");
+            }
+            placeholders.append(")");
+            for (int i = 0; i < statementRows.size(); i++) {
+                sql.append(i == 0 ? "" : ", ").append(placeholders);
+            }
+            sql.append(onDuplicate);
+
+            SQLQuery query = session.createSQLQuery(sql.toString());
+            int position = 0;
+            for (Object[] row : statementRows) {
+                for (int column = 0; column < types.length; column++) {
+                    query.setParameter(position++, row[column], types[column]);
+                }
+            }
+            query.executeUpdate();
+        }
+    }
 }
@@ -14,14 +14,19 @@
  */
 package com.amediamanager.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.amediamanager.domain.Tag;
 import com.amediamanager.domain.User;
-import com.amediamanager.domain.Video;
 
 public interface TagDao {
 	void save(Tag t);
+	List<Tag> upsert(Collection<Tag> tags);
+	void adjustTagCounts(String owner, Collection<String> tagIds, int delta);
 	List<TagCount> getTagsForUser(String u);
-	List<Video> getVideosForUserByTag(String user, String tagId);
+	/**
+	 * Listing results are read-only, as for {@link VideoDao#findByUserId}.
+	 */
+	VideoPage getVideosForUserByTag(String user, String tagId, VideoCursor after, int limit);
 }
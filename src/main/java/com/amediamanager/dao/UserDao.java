@@ -23,7 +23,7 @@ public interface UserDao {
 
 	public void save(User user) throws UserExistsException, DataSourceTableDoesNotExistException;
 
-	public void update(User user) throws UserDoesNotExistException, DataSourceTableDoesNotExistException;
+	public User update(User user) throws UserDoesNotExistException, DataSourceTableDoesNotExistException;
 	
 	public User find (String email) throws DataSourceTableDoesNotExistException;
 
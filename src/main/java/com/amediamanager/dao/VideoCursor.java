@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.dao;
+
+import java.util.Date;
+
+import com.amediamanager.domain.Video;
+import com.amediamanager.exceptions.InvalidCursorException;
+
+/**
+ * Keyset pagination position in a newest-first video listing. A page after
+ * this cursor contains the videos that sort strictly after
+ * (uploadedDate, videoId) in descending order, so page queries can seek on
+ * the index instead of scanning and skipping an offset.
+ */
+public class VideoCursor {
+	private static final char SEPARATOR = '_';
+
+	private final Date uploadedDate;
+	private final String videoId;
+
+	public VideoCursor(Date uploadedDate, String videoId) {
+		this.uploadedDate = uploadedDate;
+		this.videoId = videoId;
+	}
+
+	public static VideoCursor after(Video video) {
+		return new VideoCursor(video.getUploadedDate(), video.getId());
+	}
+
+	/**
+	 * Parse a cursor previously produced by {@link #toString()}.
+	 * @return the cursor, or null for a null or empty value (i.e. the first page)
+	 * @throws InvalidCursorException if the value is not a valid cursor
+	 */
+	public static VideoCursor parse(String cursor) {
+		if (cursor == null || cursor.isEmpty()) {
+			return null;
+		}
+		int separator = cursor.indexOf(SEPARATOR);
+		if (separator <= 0 || separator == cursor.length() - 1) {
+			throw new InvalidCursorException("\"" + cursor + "\" is not a valid cursor");
+		}
+		try {
+			long millis = Long.parseLong(cursor.substring(0, separator));
+			return new VideoCursor(new Date(millis), cursor.substring(separator + 1));
+		} catch (NumberFormatException e) {
+			throw new InvalidCursorException("\"" + cursor + "\" is not a valid cursor", e);
+		}
+	}
+
+	public Date getUploadedDate() {
+		return uploadedDate;
+	}
+
+	public String getVideoId() {
+		return videoId;
+	}
+
+	@Override
+	public String toString() {
+		return uploadedDate.getTime() + String.valueOf(SEPARATOR) + videoId;
+	}
+}
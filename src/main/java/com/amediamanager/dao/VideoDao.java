@@ -14,16 +14,59 @@
  */
 package com.amediamanager.dao;
 
-import java.util.List;
+import java.util.Iterator;
+import java.util.Set;
 
 import com.amediamanager.domain.Video;
 import com.amediamanager.exceptions.DataSourceTableDoesNotExistException;
 
 public interface VideoDao {
-    public void save(Video video) throws DataSourceTableDoesNotExistException;
-    public void update(Video video) throws DataSourceTableDoesNotExistException;
-    public void delete(Video video);
-    public List<Video> findByUserId(String userId);
+    /**
+     * @return the video's id, owner and tags as stored before the write, read
+     *         in the write's transaction, or null if the video is new
+     */
+    public Video save(Video video) throws DataSourceTableDoesNotExistException;
+    /**
+     * @return the video's id, owner and tags as stored before the write, read
+     *         in the write's transaction, or null if the video is new
+     */
+    public Video update(Video video) throws DataSourceTableDoesNotExistException;
+    /**
+     * @return the video's id, owner and tags as stored before the delete, or
+     *         null if it was already gone
+     */
+    public Video delete(Video video);
+    /**
+     * Listing results are read-only: the videos are built from a column
+     * projection, not loaded as entities, and are shared through the caches.
+     * They must never be modified or passed to {@link #save}, {@link #update}
+     * or {@link #delete}; load the video with {@link #findById} to change it.
+     * @return a page of the user's videos, newest first
+     */
+    public VideoPage findByUserId(String userId, VideoCursor after, int limit);
     public Video findByTranscodeJobId(String jobId);
     public Video findById(String id);
+    /**
+     * Listing results are read-only, as for {@link #findByUserId}.
+     * @return a page of public videos, newest first
+     */
+    public VideoPage findAllPublic(VideoCursor after, int limit);
+    /**
+     * Insert videos in chunks of chunkSize, each in its own transaction.
+     * @param listener told about each chunk once it is committed, or null
+     * @return the number of videos inserted
+     * @throws IllegalArgumentException if chunkSize is not positive
+     */
+    public int bulkImport(Iterator<Video> videos, int chunkSize, ImportListener listener);
+
+    /**
+     * Notified as a bulk import progresses, e.g. to retire cached data of the
+     * users whose videos were imported.
+     */
+    public static interface ImportListener {
+        /**
+         * @param owners the owners of the videos inserted by the chunk
+         */
+        void chunkCommitted(Set<String> owners);
+    }
 }
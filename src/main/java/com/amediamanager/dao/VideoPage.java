@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.dao;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.amediamanager.domain.Video;
+
+/**
+ * One page of a video listing, ordered newest first. The cursor for the next
+ * page is null when this is the last page.
+ */
+public class VideoPage implements Serializable {
+	private static final long serialVersionUID = 4411526014726154309L;
+	private final List<Video> videos;
+	private final String nextCursor;
+
+	public VideoPage() {
+		this(new ArrayList<Video>(), null);
+	}
+
+	public VideoPage(List<Video> videos, String nextCursor) {
+		this.videos = videos;
+		this.nextCursor = nextCursor;
+	}
+
+	/**
+	 * Build a page from a query that fetched up to limit + 1 rows; the extra
+	 * row only tells us whether there is a next page.
+	 */
+	public static VideoPage fromResults(List<Video> results, int limit) {
+		if (results.size() <= limit) {
+			return new VideoPage(new ArrayList<Video>(results), null);
+		}
+		List<Video> videos = new ArrayList<Video>(results.subList(0, limit));
+		return new VideoPage(videos, VideoCursor.after(videos.get(limit - 1)).toString());
+	}
+
+	/**
+	 * @return a copy of this page with the video inserted at its position,
+	 *         replacing any entry with the same id, or null if the video sorts
+	 *         after this page (a page with a next cursor cannot tell whether
+	 *         it belongs here)
+	 */
+	public VideoPage withInserted(Video video, int limit) {
+		List<Video> updated = new ArrayList<Video>(videos);
+		int existing = indexOf(video.getId());
+		if (existing >= 0) {
+			// e.g. a save that is retried, or one that raced a page load
+			updated.remove(existing);
+		}
+		int position = 0;
+		while (position < updated.size() && isNewer(updated.get(position), video)) {
+			position++;
+		}
+		if (position == updated.size() && hasNext()) {
+			return null;
+		}
+		updated.add(position, video);
+		if (updated.size() <= limit) {
+			return new VideoPage(updated, nextCursor);
+		}
+		updated = new ArrayList<Video>(updated.subList(0, limit));
+		return new VideoPage(updated, VideoCursor.after(updated.get(limit - 1)).toString());
+	}
+
+	/**
+	 * @return a copy of this page with the video swapped in for the entry with
+	 *         the same id, or null if it is not on this page or its upload
+	 *         date (and so its position) changed
+	 */
+	public VideoPage withReplaced(Video video) {
+		int index = indexOf(video.getId());
+		if (index < 0 || !sameDate(videos.get(index).getUploadedDate(), video.getUploadedDate())) {
+			return null;
+		}
+		List<Video> updated = new ArrayList<Video>(videos);
+		updated.set(index, video);
+		return new VideoPage(updated, nextCursor);
+	}
+
+	/**
+	 * @return a copy of this page without the video, or null if it is not on
+	 *         this page or the page would have to be refilled from the next one
+	 */
+	public VideoPage withRemoved(String videoId) {
+		int index = indexOf(videoId);
+		if (index < 0 || hasNext()) {
+			return null;
+		}
+		List<Video> updated = new ArrayList<Video>(videos);
+		updated.remove(index);
+		return new VideoPage(updated, null);
+	}
+
+	public List<Video> getVideos() {
+		return videos;
+	}
+
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	public boolean hasNext() {
+		return nextCursor != null;
+	}
+
+	private int indexOf(String videoId) {
+		for (int i = 0; i < videos.size(); i++) {
+			if (videos.get(i).getId().equals(videoId)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** Listing order: uploadedDate desc, then id desc */
+	private static boolean isNewer(Video a, Video b) {
+		int byDate = a.getUploadedDate().compareTo(b.getUploadedDate());
+		return byDate > 0 || (byDate == 0 && a.getId().compareTo(b.getId()) > 0);
+	}
+
+	private static boolean sameDate(Date a, Date b) {
+		return a == null ? b == null : b != null && a.getTime() == b.getTime();
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.dao;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Session;
+
+import com.amediamanager.domain.Privacy;
+import com.amediamanager.domain.Tag;
+import com.amediamanager.domain.Video;
+import com.google.common.collect.Lists;
+
+/**
+ * Video listings select columns rather than entities, so the videos they
+ * return are plain detached objects: Hibernate doesn't hydrate or track them
+ * in the persistence context, snapshot them for dirty checking or put them
+ * in the second-level cache. Their tags are read with one extra query per
+ * listing instead of a collection load per video. They are for display only
+ * and must never be written back through the DAO.
+ */
+public final class VideoProjection {
+	/** Select list for queries that alias the video as "video" */
+	static final String COLUMNS = "video.id, video.transcodeJobId, video.owner, video.bucket,"
+			+ " video.originalKey, video.thumbnailKey, video.previewKey, video.title,"
+			+ " video.description, video.uploadedDate, video.createdDate, video.privacy";
+
+	/** Videos per tag query */
+	private static final int TAG_QUERY_BATCH_SIZE = 500;
+
+	private VideoProjection() {
+	}
+
+	/**
+	 * @param rows results of a query selecting {@link #COLUMNS}
+	 * @return the videos, in the order of the rows, with their tags
+	 */
+	@SuppressWarnings("unchecked")
+	static List<Video> toVideos(Session session, List<Object[]> rows) {
+		Map<String, Video> videos = new LinkedHashMap<String, Video>();
+		for (Object[] row : rows) {
+			Video video = new Video();
+			video.setId((String) row[0]);
+			video.setTranscodeJobId((String) row[1]);
+			video.setOwner((String) row[2]);
+			video.setBucket((String) row[3]);
+			video.setOriginalKey((String) row[4]);
+			video.setThumbnailKey((String) row[5]);
+			video.setPreviewKey((String) row[6]);
+			video.setTitle((String) row[7]);
+			video.setDescription((String) row[8]);
+			video.setUploadedDate(toDate(row[9]));
+			video.setCreatedDate(toDate(row[10]));
+			video.setPrivacy((Privacy) row[11]);
+			video.setTags(new HashSet<Tag>());
+			videos.put(video.getId(), video);
+		}
+
+		for (List<String> ids : Lists.partition(new ArrayList<String>(videos.keySet()), TAG_QUERY_BATCH_SIZE)) {
+			List<Object[]> tags = session.createQuery(
+					"select video.id, tag.tagId, tag.name from Video video join video.tags tag"
+					+ " where video.id in (:ids)")
+					.setParameterList("ids", ids)
+					.list();
+			for (Object[] row : tags) {
+				Tag tag = new Tag();
+				tag.setTagId((String) row[1]);
+				tag.setName((String) row[2]);
+				videos.get(row[0]).getTags().add(tag);
+			}
+		}
+		return new ArrayList<Video>(videos.values());
+	}
+
+	/**
+	 * A detached copy of a video in the shape listings return, for writing a
+	 * video the caller still holds (possibly a Hibernate-managed one) into
+	 * cached pages: its columns, and its tags with only their id and name.
+	 */
+	public static Video copyOf(Video video) {
+		Video copy = new Video();
+		copy.setId(video.getId());
+		copy.setTranscodeJobId(video.getTranscodeJobId());
+		copy.setOwner(video.getOwner());
+		copy.setBucket(video.getBucket());
+		copy.setOriginalKey(video.getOriginalKey());
+		copy.setThumbnailKey(video.getThumbnailKey());
+		copy.setPreviewKey(video.getPreviewKey());
+		copy.setTitle(video.getTitle());
+		copy.setDescription(video.getDescription());
+		copy.setUploadedDate(toDate(video.getUploadedDate()));
+		copy.setCreatedDate(toDate(video.getCreatedDate()));
+		copy.setPrivacy(video.getPrivacy());
+		copy.setTags(new HashSet<Tag>());
+		if (video.getTags() != null) {
+			for (Tag tag : video.getTags()) {
+				Tag tagCopy = new Tag();
+				tagCopy.setTagId(tag.getTagId());
+				tagCopy.setName(tag.getName());
+				copy.getTags().add(tagCopy);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * JDBC hands back java.sql.Timestamp, whose equals() doesn't match the
+	 * java.util.Date the rest of the application compares against.
+	 */
+	private static Date toDate(Object value) {
+		return value == null ? null : new Date(((Date) value).getTime());
+	}
+}
@@ -24,8 +24,12 @@ import javax.persistence.Id;
 import javax.persistence.ManyToMany;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 @Entity
 @Table(name="tags")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "tag")
 public class Tag implements Serializable {
 	private static final long serialVersionUID = -2103948648383738451L;
 	private String tagId;
@@ -44,6 +44,8 @@ public class User implements Serializable {
 	private String tagline;
 	private String profilePicKey;
 	private CommonsMultipartFile profilePicData;
+	/** Item version for optimistic updates; null for users stored before versioning */
+	private Long version;
 
 	public String getId() {
 		return this.id;
@@ -98,6 +100,14 @@ public class User implements Serializable {
 
 	}
 	
+	public Long getVersion() {
+		return this.version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
 	public CommonsMultipartFile getprofilePicData()
 	  {
 	    return profilePicData;
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.domain;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+
+/**
+ * Number of videos a user has with a given tag. Rows are kept up to date by
+ * the video DAO in the same transaction as the video write, so the tag list
+ * for a user can be read without aggregating videos_tags.
+ */
+@Entity
+@Table(name="user_tag_counts")
+@IdClass(UserTagCount.Key.class)
+public class UserTagCount implements Serializable {
+	private static final long serialVersionUID = 4785231468716209531L;
+	private String owner;
+	private String tagId;
+	private long videoCount;
+
+	public UserTagCount() {}
+
+	@Id
+	@Column(name = "owner", nullable = false)
+	public String getOwner() {
+		return this.owner;
+	}
+
+	@Id
+	@Column(name = "tagId", nullable = false)
+	public String getTagId() {
+		return this.tagId;
+	}
+
+	@Column(name = "videoCount", nullable = false)
+	public long getVideoCount() {
+		return this.videoCount;
+	}
+
+	public void setOwner(String owner) {
+		this.owner = owner;
+	}
+
+	public void setTagId(String tagId) {
+		this.tagId = tagId;
+	}
+
+	public void setVideoCount(long videoCount) {
+		this.videoCount = videoCount;
+	}
+
+	public static class Key implements Serializable {
+		private static final long serialVersionUID = -1302385741170412290L;
+		private String owner;
+		private String tagId;
+
+		public Key() {}
+
+		public String getOwner() {
+			return this.owner;
+		}
+
+		public String getTagId() {
+			return this.tagId;
+		}
+
+		public void setOwner(String owner) {
+			this.owner = owner;
+		}
+
+		public void setTagId(String tagId) {
+			this.tagId = tagId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return (owner == null ? other.owner == null : owner.equals(other.owner))
+					&& (tagId == null ? other.tagId == null : tagId.equals(other.tagId));
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (owner == null ? 0 : owner.hashCode()) + (tagId == null ? 0 : tagId.hashCode());
+		}
+	}
+}
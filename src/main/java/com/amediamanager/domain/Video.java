@@ -15,7 +15,6 @@
 
 package com.amediamanager.domain;
 
-import java.net.URL;
 import java.util.Date;
 import java.util.Set;
 import java.io.Serializable;
@@ -31,12 +30,15 @@ import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
 import javax.persistence.Table;
-import javax.persistence.Transient;
 
 import org.apache.commons.lang.StringUtils;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 @Entity
 @Table(name="videos")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "video")
 public class Video implements Serializable {
 	private static final long serialVersionUID = 1070790235916873929L;
 	private String id;
@@ -52,9 +54,6 @@ public class Video implements Serializable {
     private Date createdDate;
     private Privacy privacy = Privacy.PRIVATE;
     private Set<Tag> tags;
-    private URL expiringUrl;
-    private URL expiringThumbnailKey;
-    private URL expiringPreviewKey;
 
     public Video() {
     }
@@ -101,8 +100,12 @@ public class Video implements Serializable {
         return description;
     }
 
+    // Tags for a whole page of videos are loaded with one IN query per batch
+    // rather than one select per video.
     @Column
     @ManyToMany(fetch = FetchType.EAGER, cascade = CascadeType.ALL)
+    @BatchSize(size = 100)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "video.tags")
     @JoinTable(name = "videos_tags", joinColumns = {
             @JoinColumn(name = "videoId", nullable = false) },
             inverseJoinColumns = { @JoinColumn(name = "tagId", nullable = false) })
@@ -130,29 +133,10 @@ public class Video implements Serializable {
         return bucket;
     }
 
-    @Transient
-    public URL getExpiringUrl() {
-        return expiringUrl;
-    }
-    
-    @Transient
-	public URL getExpiringThumbnailKey() {
-		return expiringThumbnailKey;
-	}
-    
-    @Transient
-	public URL getExpiringPreviewKey() {
-		return expiringPreviewKey;
-	}
-
     public void setTranscodeJobId(final String jobId) {
         this.transcodeJobId = jobId;
     }
 
-    public void setExpiringUrl(URL expiringUrl) {
-        this.expiringUrl = expiringUrl;
-    }
-
     public void setBucket(String bucket) {
         this.bucket = bucket;
     }
@@ -200,12 +184,4 @@ public class Video implements Serializable {
     public void setPrivacy(Privacy privacy) {
         this.privacy = privacy;
     }
-
-	public void setExpiringThumbnailKey(URL expiringThumbnailKey) {
-		this.expiringThumbnailKey = expiringThumbnailKey;
-	}
-
-	public void setExpiringPreviewKey(URL expiringPreviewKey) {
-		this.expiringPreviewKey = expiringPreviewKey;
-	}
 }
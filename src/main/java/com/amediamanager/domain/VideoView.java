@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.domain;
+
+import java.net.URL;
+
+/**
+ * What the video list templates show of a video, with its expiring URLs.
+ * Built per request from a Video, which is left untouched since it may be a
+ * cached instance shared with other requests.
+ */
+public class VideoView {
+	private final String id;
+	private final String title;
+	private final URL url;
+	private final URL thumbnailUrl;
+	private final URL previewUrl;
+
+	public VideoView(String id, String title, URL url, URL thumbnailUrl, URL previewUrl) {
+		this.id = id;
+		this.title = title;
+		this.url = url;
+		this.thumbnailUrl = thumbnailUrl;
+		this.previewUrl = previewUrl;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	/** Expiring URL of the original video */
+	public URL getUrl() {
+		return url;
+	}
+
+	/** Expiring URL of the thumbnail, or null */
+	public URL getThumbnailUrl() {
+		return thumbnailUrl;
+	}
+
+	/** Expiring URL of the web preview, or null until it has been transcoded */
+	public URL getPreviewUrl() {
+		return previewUrl;
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.exceptions;
+
+/**
+ * Exception that is raised when a paging cursor sent by the client can't be
+ * parsed, e.g. because it was edited or truncated.
+ */
+public class InvalidCursorException extends IllegalArgumentException {
+	private static final long serialVersionUID = 1L;
+
+	public InvalidCursorException(String message) {
+		super(message);
+	}
+
+	public InvalidCursorException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
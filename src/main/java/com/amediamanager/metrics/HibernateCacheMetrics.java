@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.metrics;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+
+/**
+ * Publishes Hibernate second-level and query cache hits, misses and puts per
+ * region. Hibernate keeps running totals, so the change since the previous
+ * report is sent.
+ */
+@Component
+public class HibernateCacheMetrics {
+
+    @Autowired
+    protected MetricBatcher metricBatcher;
+
+    @Autowired
+    protected SessionFactory sessionFactory;
+
+    private final Map<String, Long> lastCounts = new HashMap<String, Long>();
+
+    @Scheduled(fixedDelay = 60000)
+    public synchronized void emitMetrics() {
+        final Statistics statistics = sessionFactory.getStatistics();
+        if (!statistics.isStatisticsEnabled()) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+
+        for (String region : statistics.getSecondLevelCacheRegionNames()) {
+            SecondLevelCacheStatistics regionStatistics = statistics.getSecondLevelCacheStatistics(region);
+            if (regionStatistics == null) {
+                continue;
+            }
+            emitDelta(region, "Hits", regionStatistics.getHitCount(), now);
+            emitDelta(region, "Misses", regionStatistics.getMissCount(), now);
+            emitDelta(region, "Puts", regionStatistics.getPutCount(), now);
+        }
+
+        emitDelta("QueryCache", "Hits", statistics.getQueryCacheHitCount(), now);
+        emitDelta("QueryCache", "Misses", statistics.getQueryCacheMissCount(), now);
+        emitDelta("QueryCache", "Puts", statistics.getQueryCachePutCount(), now);
+    }
+
+    private void emitDelta(String region, String metricName, long total, long timestamp) {
+        final String key = region + "/" + metricName;
+        final Long last = lastCounts.put(key, total);
+        final long delta = last == null ? total : total - last;
+
+        metricBatcher.addDatum("AMM", new MetricDatum()
+                .withDimensions(new Dimension().withName("Svc")
+                                               .withValue("HibernateCache"),
+                                new Dimension().withName("Region")
+                                               .withValue(region))
+                .withMetricName(metricName)
+                .withUnit(StandardUnit.Count)
+                .withValue((double) Math.max(delta, 0))
+                .withTimestamp(new Date(timestamp)));
+    }
+}
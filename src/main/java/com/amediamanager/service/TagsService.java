@@ -14,14 +14,30 @@
  */
 package com.amediamanager.service;
 
+import java.util.Collection;
 import java.util.List;
 
+import com.amediamanager.cache.CacheRequest;
 import com.amediamanager.dao.TagCount;
-import com.amediamanager.domain.Video;
+import com.amediamanager.dao.VideoPage;
+import com.amediamanager.domain.Tag;
+import com.amediamanager.exceptions.InvalidCursorException;
 
 public interface TagsService {
 
 	List<TagCount> getTagsForUser(String user);
-	List<Video> getVideosForUserByTag(String user, String tagId); 
+	VideoPage getVideosForUserByTag(String user, String tagId, String cursor, int limit);
+	/**
+	 * A page of the user's videos with the tag, and the user's tags, fetched
+	 * from the cache together.
+	 * @throws InvalidCursorException if the cursor is not valid
+	 */
+	PageData getPageDataForUserByTag(String user, String tagId, String cursor, int limit);
+	/**
+	 * The cache lookup behind getTagsForUser, for fetching the tags along with
+	 * other cached data in one round trip.
+	 */
+	CacheRequest<List<TagCount>> getTagsForUserRequest(String user);
 	void bustCacheForUser(String user);
+	void updateCachedTagCounts(String user, Collection<Tag> before, Collection<Tag> after);
 }
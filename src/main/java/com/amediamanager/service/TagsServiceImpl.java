@@ -14,19 +14,31 @@
  */
 package com.amediamanager.service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-
-import net.spy.memcached.MemcachedClient;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.amediamanager.cache.CacheRequest;
+import com.amediamanager.cache.CacheTemplate;
+import com.amediamanager.cache.UserCacheKeys;
 import com.amediamanager.config.ConfigurationSettings;
 import com.amediamanager.dao.TagDao;
+import com.amediamanager.dao.VideoCursor;
+import com.amediamanager.dao.VideoPage;
 import com.amediamanager.dao.TagCount;
-import com.amediamanager.domain.Video;
+import com.amediamanager.domain.Tag;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.hash.Hashing;
 
 @Service
 public class TagsServiceImpl implements TagsService {
@@ -38,49 +50,150 @@ public class TagsServiceImpl implements TagsService {
 	private TagDao tagDao; 
 
 	@Autowired
-	protected MemcachedClient memcachedClient;
+	protected CacheTemplate cache;
 	
 	@Autowired
 	protected ConfigurationSettings config;
 	
-	@SuppressWarnings("unchecked")
 	@Override
 	public List<TagCount> getTagsForUser(String user) {
-		Object cached = null;
-		List<TagCount> tags = null;
-		
-		if(cachingEnabled()) {
-			cached = memcachedClient.get(getTagListKey(user));
-		}
-		
-		if(cached != null) {
-			tags = (List<TagCount>)cached;
-			LOG.debug("CACHE HIT: Tag List");
-		} else {
-			tags = tagDao.getTagsForUser(user);
-			if(cachingEnabled()) {
-				LOG.info("CACHE MISS: Tag List");
-				memcachedClient.set(getTagListKey(user), 3600, tags);
+		return cache.get(getTagsForUserRequest(user));
+	}
+
+	@Override
+	public CacheRequest<List<TagCount>> getTagsForUserRequest(final String user) {
+		return new CacheRequest<List<TagCount>>("TagList", getTagListKey(user), 3600, new Callable<List<TagCount>>() {
+			@Override
+			public List<TagCount> call() {
+				return tagDao.getTagsForUser(user);
 			}
-		}
-		return tags;
+		});
+	}
+
+	@Override
+	public VideoPage getVideosForUserByTag(String user, String tagId, String cursor, int limit) {
+		return cache.get(getTagPageRequest(user, tagId, cursor, limit));
 	}
 
 	@Override
-	public List<Video> getVideosForUserByTag(String user, String tagId) {
-		return tagDao.getVideosForUserByTag(user, tagId);
+	public PageData getPageDataForUserByTag(String user, String tagId, String cursor, int limit) {
+		CacheRequest<VideoPage> page = getTagPageRequest(user, tagId, cursor, limit);
+		CacheRequest<List<TagCount>> tags = getTagsForUserRequest(user);
+		cache.getAll(page, tags);
+		return new PageData(page.getValue(), tags.getValue());
+	}
+
+	private CacheRequest<VideoPage> getTagPageRequest(final String user, final String tagId, String cursor, final int limit) {
+		final VideoCursor after = VideoCursor.parse(cursor);
+		String pageKey = cachingEnabled() ? getTagPageKey(user, tagId, after, limit) : null;
+		return new CacheRequest<VideoPage>("TagVideoPage", pageKey, 3600, new Callable<VideoPage>() {
+			@Override
+			public VideoPage call() {
+				return tagDao.getVideosForUserByTag(user, tagId, after, limit);
+			}
+		});
 	}
 	
 	@Override
 	public void bustCacheForUser(String user) {
 		if(cachingEnabled()) {
-			memcachedClient.delete(getTagListKey(user));
+			cache.delete(getTagListKey(user));
+			cache.incrementGeneration(getTagPageGenerationKey(user));
 			LOG.info("Busted tag list cache for " + getTagListKey(user));
 		}
 	}
 
+	/**
+	 * Write-through counterpart of bustCacheForUser: patch the cached tag
+	 * counts with the difference between a video's old and new tags, and
+	 * only delete them if the patch fails. Tag pages are still retired.
+	 */
+	@Override
+	public void updateCachedTagCounts(String user, Collection<Tag> before, Collection<Tag> after) {
+		if(!cachingEnabled()) {
+			return;
+		}
+		final Map<String, Tag> removed = byId(before);
+		final Map<String, Tag> added = byId(after);
+		for (String tagId : new ArrayList<String>(removed.keySet())) {
+			if (added.remove(tagId) != null) {
+				removed.remove(tagId);
+			}
+		}
+
+		if (!removed.isEmpty() || !added.isEmpty()) {
+			boolean patched = cache.update("TagList", getTagListKey(user), 3600,
+					new Function<List<TagCount>, List<TagCount>>() {
+						@Override
+						public List<TagCount> apply(List<TagCount> tags) {
+							return applyDelta(tags, removed, added);
+						}
+					});
+			if (patched) {
+				LOG.info("Patched tag list cache for " + getTagListKey(user));
+			} else {
+				cache.delete(getTagListKey(user));
+				LOG.info("Busted tag list cache for " + getTagListKey(user));
+			}
+		}
+		cache.incrementGeneration(getTagPageGenerationKey(user));
+	}
+
+	/**
+	 * @return the counts with removed tags decremented and added tags
+	 *         incremented, ordered by tag id like getTagsForUser, or null if
+	 *         the cached counts don't agree with the change
+	 */
+	private static List<TagCount> applyDelta(List<TagCount> tags, Map<String, Tag> removed, Map<String, Tag> added) {
+		Map<String, TagCount> counts = new TreeMap<String, TagCount>();
+		for (TagCount tag : tags) {
+			counts.put(tag.getTagId(), tag);
+		}
+		for (String tagId : removed.keySet()) {
+			TagCount tag = counts.remove(tagId);
+			if (tag == null) {
+				return null;
+			}
+			if (tag.getCount() > 1) {
+				counts.put(tagId, new TagCount(tagId, tag.getName(), tag.getCount() - 1));
+			}
+		}
+		for (Tag addedTag : added.values()) {
+			TagCount tag = counts.get(addedTag.getTagId());
+			counts.put(addedTag.getTagId(), tag == null
+					? new TagCount(addedTag.getTagId(), addedTag.getName(), 1)
+					: new TagCount(tag.getTagId(), tag.getName(), tag.getCount() + 1));
+		}
+		return new ArrayList<TagCount>(counts.values());
+	}
+
+	private static Map<String, Tag> byId(Collection<Tag> tags) {
+		Map<String, Tag> byId = new HashMap<String, Tag>();
+		if (tags != null) {
+			for (Tag tag : tags) {
+				byId.put(tag.getTagId(), tag);
+			}
+		}
+		return byId;
+	}
+
 	private String getTagListKey(String ownerId) {
-		return ownerId + "-tags";
+		return UserCacheKeys.tagList(ownerId);
+	}
+
+	/**
+	 * Tag pages follow the same generation scheme as the video pages in
+	 * VideoServiceImpl, so bustCacheForUser retires all of them at once.
+	 */
+	private String getTagPageKey(String ownerId, String tagId, VideoCursor after, int limit) {
+		String generation = cache.getGeneration(getTagPageGenerationKey(ownerId));
+		// Tags are free text, so hash them to keep the key memcached-safe
+		String tagHash = Hashing.md5().hashString(tagId, Charsets.UTF_8).toString();
+		return ownerId + "-tag-" + tagHash + "-" + generation + "-" + UserCacheKeys.pagePosition(after) + "-" + limit;
+	}
+
+	private String getTagPageGenerationKey(String ownerId) {
+		return UserCacheKeys.tagPageGeneration(ownerId);
 	}
 
 	private Boolean cachingEnabled() {
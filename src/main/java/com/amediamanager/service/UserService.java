@@ -21,7 +21,14 @@ public interface UserService {
 
 	public void save(User user) throws UserExistsException, DataSourceTableDoesNotExistException;;
 
-	public void update(User user) throws UserDoesNotExistException, DataSourceTableDoesNotExistException;;
+	/**
+	 * Update the user's profile. Empty passwords and profile pics are left
+	 * unchanged.
+	 * @return the user as stored after the update
+	 * @throws UserModifiedException if the user was changed since it was read,
+	 *         or has no version but its item was written with one
+	 */
+	public User update(User user) throws UserDoesNotExistException, DataSourceTableDoesNotExistException;
 
 	public User find (String email) throws DataSourceTableDoesNotExistException;
 }
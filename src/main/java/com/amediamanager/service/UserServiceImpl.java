@@ -16,6 +16,11 @@ package com.amediamanager.service;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,24 +34,60 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.stereotype.Service;
 
+import com.amediamanager.cache.InvalidationChannel;
 import com.amediamanager.config.ConfigurationSettings;
 import com.amediamanager.domain.User;
 import com.amediamanager.exceptions.DataSourceTableDoesNotExistException;
-import com.amediamanager.exceptions.UserDoesNotExistException;
 import com.amediamanager.exceptions.UserExistsException;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import org.mindrot.jbcrypt.*;
 
+/**
+ * Users are cached in-process for a short time, including emails that have no
+ * user, so logins and page loads don't each cost a DynamoDB read. Changes made
+ * through this service invalidate the entry here and, through the
+ * {@link InvalidationChannel}, on the other instances.
+ */
 @Service("userService")
 public class UserServiceImpl implements UserService, AuthenticationProvider {
     private static final Logger LOG = LoggerFactory.getLogger(UserServiceImpl.class);
 
+    /** How long a user, or the absence of one, may be served from the cache **/
+    private static final int USER_CACHE_TTL_SECONDS = 60;
+    private static final long USER_CACHE_MAX_SIZE = 10000;
+    private static final String USER_KEY_PREFIX = "user-";
+
     @Autowired
     private com.amediamanager.dao.DynamoDbUserDaoImpl userDao;
 
     @Autowired
     private ConfigurationSettings configurationSettings;
 
+    @Autowired
+    private InvalidationChannel invalidationChannel;
+
+    private final Cache<String, Optional<User>> users = CacheBuilder.newBuilder()
+            .maximumSize(USER_CACHE_MAX_SIZE)
+            .expireAfterWrite(USER_CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    @PostConstruct
+    public void subscribe() {
+        invalidationChannel.subscribe(new InvalidationChannel.Listener() {
+            @Override
+            public void invalidate(String key) {
+                if (key.startsWith(USER_KEY_PREFIX)) {
+                    users.invalidate(key.substring(USER_KEY_PREFIX.length()));
+                }
+            }
+        });
+    }
+
     @Override
     public void save(User user) throws DataSourceTableDoesNotExistException, UserExistsException {
         // MD5 password
@@ -55,47 +96,67 @@ public class UserServiceImpl implements UserService, AuthenticationProvider {
         // Default profile pic URL
         user.setProfilePicKey(getDefaultProfilePicKey());
 
-        userDao.save(user);
+        try {
+            userDao.save(user);
+        } finally {
+            // Drop the cached "no such user"
+            invalidate(user.getEmail());
+        }
     }
 
     @Override
-    public void update(User user) {
-        // Make sure the user exists
-        User existing = this.find(user.getEmail());
-
-        // If the user does not exist, throw an exception
-        if(null == existing) {
-            throw new UserDoesNotExistException();
-        }
-
-        // Don't allow empty password
-        if(user.getPassword() == null || user.getPassword().isEmpty()) {
-            user.setPassword(existing.getPassword());
-        } else {
-            // Otherwise MD5 password
+    public User update(User user) {
+        // Empty passwords and profile pics are left as they are by the DAO
+        if(user.getPassword() != null && !user.getPassword().isEmpty()) {
+            // MD5 password
             user.setPassword(bcryptPassword(user.getPassword()));
         }
 
-        // Don't allow empty profile pic
-        if(user.getProfilePicKey() == null || user.getProfilePicKey() == "") {
-            user.setProfilePicKey(existing.getProfilePicKey());
+        try {
+            return userDao.update(user);
+        } finally {
+            invalidate(user.getEmail());
         }
-
-        // Upload pic to S3 if it exists
-
-        userDao.update(user);
     }
 
     @Override
-    public User find(String email) {
-        User user = null;
+    public User find(final String email) {
+        Optional<User> user;
         try {
-            user = userDao.find(email);
-        } catch (DataSourceTableDoesNotExistException e) {
-            LOG.info("Failed to find user {}", email, e);
-            throw e;
+            user = users.get(email, new Callable<Optional<User>>() {
+                @Override
+                public Optional<User> call() {
+                    return Optional.fromNullable(userDao.find(email));
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof DataSourceTableDoesNotExistException) {
+                LOG.info("Failed to find user {}", email, e.getCause());
+            }
+            throw Throwables.propagate(e.getCause());
         }
-        return user;
+        // Callers keep and modify the user (e.g. as the session's details),
+        // so hand out a copy of the cached one
+        return user.isPresent() ? copyOf(user.get()) : null;
+    }
+
+    private void invalidate(String email) {
+        users.invalidate(email);
+        invalidationChannel.publish(USER_KEY_PREFIX + email);
+    }
+
+    private static User copyOf(User user) {
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setEmail(user.getEmail());
+        copy.setPassword(user.getPassword());
+        copy.setNickname(user.getNickname());
+        copy.setTagline(user.getTagline());
+        copy.setProfilePicKey(user.getProfilePicKey());
+        copy.setVersion(user.getVersion());
+        return copy;
     }
 
     @Override
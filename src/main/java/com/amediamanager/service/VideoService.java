@@ -17,8 +17,11 @@ package com.amediamanager.service;
 import java.text.ParseException;
 import java.util.List;
 
+import com.amediamanager.dao.VideoPage;
 import com.amediamanager.domain.Video;
+import com.amediamanager.domain.VideoView;
 import com.amediamanager.exceptions.DataSourceTableDoesNotExistException;
+import com.amediamanager.exceptions.InvalidCursorException;
 
 public interface VideoService {
 
@@ -32,17 +35,40 @@ public interface VideoService {
 
     public Video findById(String videoId) throws DataSourceTableDoesNotExistException;
 
-    public List<Video> findByUserId(String email) throws DataSourceTableDoesNotExistException;
+    /**
+     * Return one page of the user's videos, newest first.
+     * @param cursor the next cursor of the previous page, or null for the first page
+     * @throws InvalidCursorException if the cursor is not valid
+     */
+    public VideoPage findByUserId(String email, String cursor, int limit) throws DataSourceTableDoesNotExistException;
+
+    /**
+     * A page of the user's videos and the user's tags, fetched from the cache
+     * together.
+     * @param cursor the next cursor of the previous page, or null for the first page
+     * @throws InvalidCursorException if the cursor is not valid
+     */
+    public PageData findPageDataByUserId(String email, String cursor, int limit) throws DataSourceTableDoesNotExistException;
 
     public Video findByTranscodeJobId(String jobId) throws DataSourceTableDoesNotExistException;
     
     public void createVideoPreview(Video video);
 
-    public List<Video> findAllPublic(int limit, int start, int end) throws DataSourceTableDoesNotExistException;
+    /**
+     * Return one page of the public video feed, newest first. The feed is
+     * shared by all users and cached for a short time.
+     * @param cursor the next cursor of the previous page, or null for the first page
+     * @throws InvalidCursorException if the cursor is not valid
+     */
+    public VideoPage findAllPublic(String cursor, int limit) throws DataSourceTableDoesNotExistException;
 
-    public Video generateExpiringUrl(Video video, long expirationInMillis);
+    /**
+     * Return what the templates show of the video, with URLs that expire
+     * after the given time. The video itself is not modified.
+     */
+    public VideoView generateExpiringUrl(Video video, long expirationInMillis);
     
-    public List<Video> generateExpiringUrls(List<Video> video, long expirationInMillis);
+    public List<VideoView> generateExpiringUrls(List<Video> video, long expirationInMillis);
 
     public String getDefaultVideoPosterKey();
 }
@@ -14,6 +14,7 @@
  */
 package com.amediamanager.service;
 
+import java.net.URL;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -23,8 +24,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import net.spy.memcached.MemcachedClient;
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,7 +40,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.amazonaws.AmazonServiceException;
-import com.amazonaws.HttpMethod;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.elastictranscoder.AmazonElasticTranscoder;
 import com.amazonaws.services.elastictranscoder.model.CreateJobOutput;
@@ -40,22 +47,51 @@ import com.amazonaws.services.elastictranscoder.model.CreateJobRequest;
 import com.amazonaws.services.elastictranscoder.model.CreateJobResult;
 import com.amazonaws.services.elastictranscoder.model.JobInput;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
 import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amediamanager.cache.CacheRequest;
+import com.amediamanager.cache.CacheTemplate;
+import com.amediamanager.cache.UserCacheKeys;
 import com.amediamanager.config.ConfigurationSettings;
 import com.amediamanager.config.ConfigurationSettings.ConfigProps;
+import com.amediamanager.controller.MainController;
 import com.amediamanager.controller.VideoController;
+import com.amediamanager.dao.TagCount;
+import com.amediamanager.dao.VideoCursor;
 import com.amediamanager.dao.VideoDao;
+import com.amediamanager.dao.VideoPage;
+import com.amediamanager.dao.VideoProjection;
 import com.amediamanager.domain.Privacy;
 import com.amediamanager.domain.Tag;
 import com.amediamanager.domain.Video;
+import com.amediamanager.domain.VideoView;
 import com.amediamanager.exceptions.DataSourceTableDoesNotExistException;
+import com.amediamanager.util.PresignedUrlCache;
+import com.google.common.base.Function;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 @Service
 public class VideoServiceImpl implements VideoService {
 	protected static final Logger LOG = LoggerFactory
 			.getLogger(VideoServiceImpl.class);
+
+	/** How long a page of the public feed may be served from the cache **/
+	private static final int PUBLIC_FEED_TTL_SECONDS = 30;
+	/** Lists longer than this are signed in batches of this size, in parallel; a page is 24 **/
+	private static final int URL_SIGNING_BATCH_SIZE = 8;
+	private static final int URL_SIGNING_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Shared by all requests. The queue is bounded, and batches that don't
+	 * fit are signed on the request thread.
+	 */
+	private final ExecutorService urlSigners = new ThreadPoolExecutor(URL_SIGNING_THREADS, URL_SIGNING_THREADS,
+			60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(URL_SIGNING_THREADS * 4),
+			new ThreadFactoryBuilder().setNameFormat("url-signer-%d").setDaemon(true).build(),
+			new ThreadPoolExecutor.CallerRunsPolicy());
 	
 	@Autowired
 	protected VideoDao videoDao;
@@ -76,16 +112,25 @@ public class VideoServiceImpl implements VideoService {
 	protected TagsService tagsService;
 	
 	@Autowired
-	protected MemcachedClient memcachedClient;
+	protected CacheTemplate cache;
+
+	@Autowired
+	protected PresignedUrlCache presignedUrls;
+
+	@PreDestroy
+	public void shutdown() {
+		urlSigners.shutdown();
+	}
 
 	@Override
 	public void save(Video video) throws DataSourceTableDoesNotExistException {
-		if(cachingEnabled()) {
-			memcachedClient.delete(getVideoListKey(video.getOwner()));
-			tagsService.bustCacheForUser(video.getOwner());
-			LOG.info("Busted video cache for " + getVideoListKey(video.getOwner()));
+		if(writeThroughEnabled()) {
+			Video previous = videoDao.save(video);
+			updateCacheForUser(previous, video);
+		} else {
+			bustCacheForUser(video.getOwner());
+			videoDao.save(video);
 		}
-		videoDao.save(video);
 	}
 	
 	@Override
@@ -108,7 +153,9 @@ public class VideoServiceImpl implements VideoService {
 				.parse(userMetadata.get("createddate")));
 		video.setOriginalKey(videoKey);
 		video.setBucket(userMetadata.get("bucket"));
-		video.setUploadedDate(new Date());
+		// MySQL timestamps have no milliseconds; drop them here so the copy
+		// written through to the cache sorts the same as the stored one
+		video.setUploadedDate(new Date(System.currentTimeMillis() / 1000 * 1000));
 
 		Set<Tag> tags = new HashSet<Tag>();
 		for (String tag : userMetadata.get("tags").split(",")) {
@@ -123,22 +170,26 @@ public class VideoServiceImpl implements VideoService {
 
 	@Override
 	public void update(Video video) throws DataSourceTableDoesNotExistException {
-		if(cachingEnabled()) {
-			memcachedClient.delete(getVideoListKey(video.getOwner()));
-			tagsService.bustCacheForUser(video.getOwner());
-			LOG.info("Busted video cache for " + getVideoListKey(video.getOwner()));
+		if(writeThroughEnabled()) {
+			Video previous = videoDao.update(video);
+			updateCacheForUser(previous, video);
+		} else {
+			bustCacheForUser(video.getOwner());
+			videoDao.update(video);
 		}
-		videoDao.update(video);
 	}
 
 	@Override
 	public void delete(Video video) {
-		if(cachingEnabled()) {
-			memcachedClient.delete(getVideoListKey(video.getOwner()));
-			tagsService.bustCacheForUser(video.getOwner());
-			LOG.info("Busted video cache for " + getVideoListKey(video.getOwner()));
+		if(writeThroughEnabled()) {
+			Video previous = videoDao.delete(video);
+			if (previous != null) {
+				updateCacheForUser(previous, null);
+			}
+		} else {
+			bustCacheForUser(video.getOwner());
+			videoDao.delete(video);
 		}
-		videoDao.delete(video);
 	}
 	
 	@Override
@@ -147,27 +198,28 @@ public class VideoServiceImpl implements VideoService {
 		return videoDao.findById(videoId);
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
-	public List<Video> findByUserId(String email) {
-		Object cached = null;
-		List<Video> videos = null;
-		
-		if(cachingEnabled()) {
-			cached = memcachedClient.get(getVideoListKey(email));
-		}
-		
-		if(cached != null) {
-			videos = (List<Video>)cached;
-			LOG.info("CACHE HIT: Video List");
-		} else {
-			videos = videoDao.findByUserId(email);
-			if(cachingEnabled()) {
-				LOG.info("CACHE MISS: Video List");
-				memcachedClient.set(getVideoListKey(email), 3600, videos);
+	public VideoPage findByUserId(String email, String cursor, int limit) {
+		return cache.get(getVideoPageRequest(email, cursor, limit));
+	}
+
+	@Override
+	public PageData findPageDataByUserId(String email, String cursor, int limit) {
+		CacheRequest<VideoPage> page = getVideoPageRequest(email, cursor, limit);
+		CacheRequest<List<TagCount>> tags = tagsService.getTagsForUserRequest(email);
+		cache.getAll(page, tags);
+		return new PageData(page.getValue(), tags.getValue());
+	}
+
+	private CacheRequest<VideoPage> getVideoPageRequest(final String email, String cursor, final int limit) {
+		final VideoCursor after = VideoCursor.parse(cursor);
+		String pageKey = cachingEnabled() ? getVideoPageKey(email, after, limit) : null;
+		return new CacheRequest<VideoPage>("VideoPage", pageKey, 3600, new Callable<VideoPage>() {
+			@Override
+			public VideoPage call() {
+				return videoDao.findByUserId(email, after, limit);
 			}
-		}
-		return videos;
+		});
 	}
 
 	@Override
@@ -177,10 +229,16 @@ public class VideoServiceImpl implements VideoService {
 	}
 
 	@Override
-	public List<Video> findAllPublic(int limit, int start, int end)
+	public VideoPage findAllPublic(String cursor, final int limit)
 			throws DataSourceTableDoesNotExistException {
-		// TODO Auto-generated method stub
-		return null;
+		final VideoCursor after = VideoCursor.parse(cursor);
+		return cache.get("PublicVideoPage", getPublicPageKey(after, limit), PUBLIC_FEED_TTL_SECONDS,
+				new Callable<VideoPage>() {
+					@Override
+					public VideoPage call() {
+						return videoDao.findAllPublic(after, limit);
+					}
+				});
 	}
 
 	@Override
@@ -219,56 +277,73 @@ public class VideoServiceImpl implements VideoService {
 		}
 	}
 	
+	/**
+	 * Lists longer than a batch are split into batches that are signed on
+	 * the shared signing pool, with the last batch signed on the request
+	 * thread; the views are returned in the order of the videos.
+	 */
 	@Override
-	public List<Video> generateExpiringUrls(List<Video> videos, long expirationInMillis) {
-		List<Video> newVideos = null;
-		if(null != videos) {
-			newVideos = new ArrayList<Video>();
-			for(Video video : videos) {
-				newVideos.add(generateExpiringUrl(video, expirationInMillis));
+	public List<VideoView> generateExpiringUrls(List<Video> videos, final long expirationInMillis) {
+		if(null == videos) {
+			return null;
+		}
+		if(videos.size() <= URL_SIGNING_BATCH_SIZE) {
+			return signBatch(videos, expirationInMillis);
+		}
+
+		List<List<Video>> batches = Lists.partition(videos, URL_SIGNING_BATCH_SIZE);
+		List<Future<List<VideoView>>> pending = new ArrayList<Future<List<VideoView>>>();
+		for (final List<Video> batch : batches.subList(0, batches.size() - 1)) {
+			pending.add(urlSigners.submit(new Callable<List<VideoView>>() {
+				@Override
+				public List<VideoView> call() {
+					return signBatch(batch, expirationInMillis);
+				}
+			}));
+		}
+		List<VideoView> last = signBatch(batches.get(batches.size() - 1), expirationInMillis);
+
+		List<VideoView> views = new ArrayList<VideoView>(videos.size());
+		try {
+			for (Future<List<VideoView>> signed : pending) {
+				views.addAll(signed.get());
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw Throwables.propagate(e.getCause());
 		}
-		
-		return newVideos;
+		views.addAll(last);
+		return views;
+	}
+
+	private List<VideoView> signBatch(List<Video> videos, long expirationInMillis) {
+		List<VideoView> views = new ArrayList<VideoView>(videos.size());
+		for(Video video : videos) {
+			views.add(generateExpiringUrl(video, expirationInMillis));
+		}
+		return views;
 	}
 	
 	@Override
-	public Video generateExpiringUrl(Video video, long expirationInMillis) {
-
-		Date expiration = new java.util.Date();
-		long msec = expiration.getTime();
-		msec += expirationInMillis;
-		expiration.setTime(msec);
-
+	public VideoView generateExpiringUrl(Video video, long expirationInMillis) {
 		// Expiring URL for original video
-		GeneratePresignedUrlRequest generatePresignedUrlRequest = new GeneratePresignedUrlRequest(
-				video.getBucket(), video.getOriginalKey());
-		generatePresignedUrlRequest.setMethod(HttpMethod.GET);
-		generatePresignedUrlRequest.setExpiration(expiration);
-		video.setExpiringUrl(s3Client
-				.generatePresignedUrl(generatePresignedUrlRequest));
+		URL url = presignedUrls.get(video.getBucket(), video.getOriginalKey(), expirationInMillis);
 
 		// Expiring URL for preview video
-		if (video.getPreviewKey() != null) {
-			generatePresignedUrlRequest = new GeneratePresignedUrlRequest(
-					video.getBucket(), video.getPreviewKey());
-			generatePresignedUrlRequest.setMethod(HttpMethod.GET);
-			generatePresignedUrlRequest.setExpiration(expiration);
-			video.setExpiringPreviewKey(s3Client
-					.generatePresignedUrl(generatePresignedUrlRequest));
+		URL previewUrl = null;
+		if (!Strings.isNullOrEmpty(video.getPreviewKey())) {
+			previewUrl = presignedUrls.get(video.getBucket(), video.getPreviewKey(), expirationInMillis);
 		}
 
-		// Expiring URL for original video
+		// Expiring URL for thumbnail
+		URL thumbnailUrl = null;
 		if (video.getThumbnailKey() != null) {
-			generatePresignedUrlRequest = new GeneratePresignedUrlRequest(
-					video.getBucket(), video.getThumbnailKey());
-			generatePresignedUrlRequest.setMethod(HttpMethod.GET);
-			generatePresignedUrlRequest.setExpiration(expiration);
-			video.setExpiringThumbnailKey(s3Client
-					.generatePresignedUrl(generatePresignedUrlRequest));
+			thumbnailUrl = presignedUrls.get(video.getBucket(), video.getThumbnailKey(), expirationInMillis);
 		}
 
-		return video;
+		return new VideoView(video.getId(), video.getTitle(), url, thumbnailUrl, previewUrl);
 	}
 
 	/**
@@ -284,11 +359,92 @@ public class VideoServiceImpl implements VideoService {
 				+ config.getProperty(ConfigurationSettings.ConfigProps.DEFAULT_VIDEO_POSTER_KEY);
 	}
 	
-	private String getVideoListKey(String ownerId) {
-		return ownerId + "-videos";
+	private void bustCacheForUser(String ownerId) {
+		if(cachingEnabled()) {
+			cache.incrementGeneration(getVideoPageGenerationKey(ownerId));
+			tagsService.bustCacheForUser(ownerId);
+			LOG.info("Busted video cache for " + ownerId);
+		}
+	}
+
+	/**
+	 * Write-through counterpart of bustCacheForUser, called after the database
+	 * write. The user's first page and tag counts are patched in place with
+	 * gets/cas so the next page view doesn't have to go to the database.
+	 * Whatever can't be patched (a CAS conflict that persists, or a change
+	 * that reaches beyond the first page) is invalidated as before.
+	 * @param previous the video's owner and tags as stored before the write,
+	 *        as returned by the DAO from the write's transaction, or null if new
+	 * @param written the video as written, or null if deleted; a detached copy
+	 *        of it is cached, as the caller keeps (and Hibernate may manage) it
+	 */
+	private void updateCacheForUser(final Video previous, Video written) {
+		if(!cachingEnabled()) {
+			return;
+		}
+		final Video current = written == null ? null : VideoProjection.copyOf(written);
+		if (previous != null && current != null && !previous.getOwner().equals(current.getOwner())) {
+			bustCacheForUser(previous.getOwner());
+			bustCacheForUser(current.getOwner());
+			return;
+		}
+		final String ownerId = current != null ? current.getOwner() : previous.getOwner();
+		final String videoId = current != null ? current.getId() : previous.getId();
+
+		// Only the first page is patched; with seek pagination an insert at
+		// the top leaves the pages after it valid
+		boolean pagePatched = cache.update("VideoPage",
+				getVideoPageKey(ownerId, null, MainController.VIDEOS_PER_PAGE), 3600,
+				new Function<VideoPage, VideoPage>() {
+					@Override
+					public VideoPage apply(VideoPage page) {
+						if (current == null) {
+							return page.withRemoved(videoId);
+						}
+						if (previous != null) {
+							return page.withReplaced(current);
+						}
+						return page.withInserted(current, MainController.VIDEOS_PER_PAGE);
+					}
+				});
+		if (!pagePatched) {
+			cache.incrementGeneration(getVideoPageGenerationKey(ownerId));
+		}
+
+		tagsService.updateCachedTagCounts(ownerId,
+				previous == null ? null : previous.getTags(),
+				current == null ? null : current.getTags());
+		LOG.info("Updated video cache for {} (page patched: {})", ownerId, pagePatched);
+	}
+
+	/**
+	 * Pages are keyed by cursor, and the key includes a per-user generation
+	 * number. Bumping the generation on every write retires all of the user's
+	 * cached pages at once.
+	 */
+	private String getVideoPageKey(String ownerId, VideoCursor after, int limit) {
+		String generation = cache.getGeneration(getVideoPageGenerationKey(ownerId));
+		return ownerId + "-videos-" + generation + "-" + UserCacheKeys.pagePosition(after) + "-" + limit;
+	}
+
+	/**
+	 * The public feed is shared by every visitor and is not invalidated on
+	 * writes; it relies on a short TTL instead.
+	 */
+	private String getPublicPageKey(VideoCursor after, int limit) {
+		return "public-videos-" + UserCacheKeys.pagePosition(after) + "-" + limit;
+	}
+
+	private String getVideoPageGenerationKey(String ownerId) {
+		return UserCacheKeys.videoPageGeneration(ownerId);
 	}
 
 	private Boolean cachingEnabled() {
 		return Boolean.parseBoolean(config.getProperty(ConfigurationSettings.ConfigProps.CACHE_ENABLED));
 	}
+
+	private Boolean writeThroughEnabled() {
+		return cachingEnabled()
+				&& Boolean.parseBoolean(config.getProperty(ConfigurationSettings.ConfigProps.CACHE_WRITE_THROUGH));
+	}
 }
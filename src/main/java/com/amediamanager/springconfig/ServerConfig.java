@@ -16,6 +16,8 @@ package com.amediamanager.springconfig;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -26,8 +28,12 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 
+import net.spy.memcached.ClientMode;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.DefaultHashAlgorithm;
 import net.spy.memcached.MemcachedClient;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSCredentialsProviderChain;
 import com.amazonaws.auth.EnvironmentVariableCredentialsProvider;
@@ -44,8 +50,14 @@ import com.amazonaws.services.rds.AmazonRDS;
 import com.amazonaws.services.rds.AmazonRDSClient;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.AmazonSNSClient;
 import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amediamanager.cache.CompactTranscoder;
+import com.amediamanager.cache.InvalidationChannel;
+import com.amediamanager.cache.LocalInvalidationChannel;
+import com.amediamanager.cache.SnsInvalidationChannel;
 import com.amediamanager.config.ConfigurationSettings;
 
 @Configuration
@@ -60,11 +72,52 @@ public class ServerConfig {
 	public MemcachedClient memcachedClient(final ConfigurationSettings settings) throws IOException {
 		MemcachedClient client = null;
 		if(settings.getProperty(ConfigurationSettings.ConfigProps.CACHE_ENABLED).equalsIgnoreCase("true")) {
-			String configEndpoint = settings.getProperty(ConfigurationSettings.ConfigProps.CACHE_ENDPOINT);
-	        Integer clusterPort = Integer.parseInt(settings.getProperty(ConfigurationSettings.ConfigProps.CACHE_PORT));
-	        client = new MemcachedClient(new InetSocketAddress(configEndpoint, clusterPort));
+			client = newMemcachedClient(settings.getProperty(ConfigurationSettings.ConfigProps.CACHE_ENDPOINT),
+					Integer.parseInt(settings.getProperty(ConfigurationSettings.ConfigProps.CACHE_PORT)));
 		}
-        return client;
+		return client;
+	}
+
+	/**
+	 * Keys are spread over the cache nodes with ketama consistent hashing, so
+	 * adding or removing a node only remaps the keys on that node's share of
+	 * the ring. An ElastiCache configuration endpoint (*.cfg.*) is polled for
+	 * the current node list; anything else is taken as a fixed,
+	 * comma-separated list of nodes, e.g. for local memcached processes.
+	 * @param defaultPort the port of nodes that don't specify one
+	 */
+	public static MemcachedClient newMemcachedClient(String endpoint, int defaultPort) throws IOException {
+		String configEndpoint = endpoint.trim();
+		ClientMode mode = configEndpoint.contains(".cfg.") ? ClientMode.Dynamic : ClientMode.Static;
+		List<InetSocketAddress> nodes = new ArrayList<InetSocketAddress>();
+		for (String node : configEndpoint.split(",")) {
+			String[] hostAndPort = node.trim().split(":");
+			nodes.add(new InetSocketAddress(hostAndPort[0],
+					hostAndPort.length > 1 ? Integer.parseInt(hostAndPort[1]) : defaultPort));
+		}
+		return new MemcachedClient(new ConnectionFactoryBuilder()
+		                               .setClientMode(mode)
+		                               .setLocatorType(ConnectionFactoryBuilder.Locator.CONSISTENT)
+		                               .setHashAlg(DefaultHashAlgorithm.KETAMA_HASH)
+		                               .setTranscoder(new CompactTranscoder())
+		                               .build(),
+		                           nodes);
+	}
+
+	/**
+	 * Near cache invalidations go through SNS when a topic is configured;
+	 * a single instance doesn't need one.
+	 */
+	@Bean
+	@Scope(WebApplicationContext.SCOPE_APPLICATION)
+	public InvalidationChannel invalidationChannel(final ConfigurationSettings settings,
+	                                               final AmazonSNS snsClient,
+	                                               final AmazonSQS sqsClient) {
+		String topicArn = settings.getProperty(ConfigurationSettings.ConfigProps.CACHE_INVALIDATION_TOPIC);
+		if (topicArn == null || topicArn.trim().isEmpty()) {
+			return new LocalInvalidationChannel();
+		}
+		return new SnsInvalidationChannel(snsClient, sqsClient, topicArn.trim());
 	}
 	
     @Bean
@@ -119,6 +172,21 @@ public class ServerConfig {
         return region.createClient(AmazonCloudWatchAsyncClient.class, creds, null);
     }
 
+    /**
+     * Only used for cache invalidations, which are worthless once the near
+     * cache TTL (5 seconds) has passed, so a publish gives up well within
+     * it instead of holding a publisher thread for the default timeouts and
+     * retries.
+     */
+    @Bean
+    @Scope(WebApplicationContext.SCOPE_APPLICATION)
+    public AmazonSNS snsClient(final AWSCredentialsProvider creds, final Region region) {
+        return region.createClient(AmazonSNSClient.class, creds, new ClientConfiguration()
+                .withConnectionTimeout(1000)
+                .withSocketTimeout(2000)
+                .withMaxErrorRetry(0));
+    }
+
     @Bean
     @Scope(WebApplicationContext.SCOPE_APPLICATION)
     public AmazonSQS sqsClient(final AWSCredentialsProvider creds, final Region region) {
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.util;
+
+import java.net.URL;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.amazonaws.HttpMethod;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
+import com.amediamanager.config.ConfigurationSettings;
+import com.amediamanager.config.ConfigurationSettings.ConfigProps;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Presigned S3 GET URLs, reused instead of signed again for every page view.
+ * <p>
+ * Expirations are rounded up to the end of a window that is
+ * PRESIGNED_URL_REUSE_FRACTION of the requested lifetime, so every request
+ * for the same object within a window gets the same URL, and that URL is
+ * still valid for at least the requested lifetime. URLs are also keyed by
+ * the access key they were signed with, so rotated instance profile
+ * credentials are picked up instead of handing out URLs whose session
+ * credentials have expired.
+ */
+@Component
+public class PresignedUrlCache {
+	/** Used when PRESIGNED_URL_REUSE_FRACTION is not set */
+	private static final double DEFAULT_REUSE_FRACTION = 0.5;
+	private static final long MAX_URLS = 100000;
+	/** No window is longer than this; URLs from past windows are never hit again */
+	private static final int MAX_WINDOW_MINUTES = 60;
+
+	@Autowired
+	protected AmazonS3 s3Client;
+
+	@Autowired
+	protected AWSCredentialsProvider credentials;
+
+	@Autowired
+	protected ConfigurationSettings config;
+
+	private final Cache<String, URL> urls = CacheBuilder.newBuilder()
+			.maximumSize(MAX_URLS)
+			.expireAfterWrite(MAX_WINDOW_MINUTES, TimeUnit.MINUTES)
+			.build();
+
+	/**
+	 * @return a GET URL for the object that is valid for at least
+	 *         lifetimeMillis
+	 */
+	public URL get(String bucket, String key, long lifetimeMillis) {
+		final long window = Math.min(TimeUnit.MINUTES.toMillis(MAX_WINDOW_MINUTES),
+				Math.max(1000, (long) (lifetimeMillis * reuseFraction())));
+		final long windowEnd = (System.currentTimeMillis() / window + 1) * window;
+		final Date expiration = new Date(windowEnd + lifetimeMillis);
+
+		String cacheKey = credentials.getCredentials().getAWSAccessKeyId()
+				+ "/" + bucket + "/" + key + "/" + expiration.getTime();
+		URL url = urls.getIfPresent(cacheKey);
+		if (url == null) {
+			GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(bucket, key);
+			request.setMethod(HttpMethod.GET);
+			request.setExpiration(expiration);
+			url = s3Client.generatePresignedUrl(request);
+			urls.put(cacheKey, url);
+		}
+		return url;
+	}
+
+	private double reuseFraction() {
+		try {
+			double fraction = Double.parseDouble(config.getProperty(ConfigProps.PRESIGNED_URL_REUSE_FRACTION).trim());
+			return fraction > 0 && fraction <= 1 ? fraction : DEFAULT_REUSE_FRACTION;
+		} catch (RuntimeException e) {
+			return DEFAULT_REUSE_FRACTION;
+		}
+	}
+}
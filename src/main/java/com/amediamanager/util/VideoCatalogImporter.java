@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.util;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.MemcachedClient;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.service.ServiceRegistryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amediamanager.cache.UserCacheKeys;
+import com.amediamanager.dao.RdsVideoDaoImpl;
+import com.amediamanager.dao.VideoDao;
+import com.amediamanager.domain.Privacy;
+import com.amediamanager.domain.Tag;
+import com.amediamanager.domain.Video;
+import com.amediamanager.springconfig.ServerConfig;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+
+/**
+ * Command line entry point for migrating a video catalog into the database.
+ * The catalog is newline-delimited JSON, one video per line, and is streamed
+ * so it never has to fit in memory:
+ *
+ * <pre>
+ * {"id": "...", "owner": "...", "bucket": "...", "originalKey": "...",
+ *  "title": "...", "description": "...", "privacy": "PUBLIC",
+ *  "createdDate": "MM/dd/yyyy", "uploadedDate": 1388534400000,
+ *  "thumbnailKey": "...", "previewKey": "...", "tags": ["a", "b"]}
+ * </pre>
+ *
+ * Usage:
+ * <pre>
+ * java -Djdbc.url=jdbc:mysql://host:3306/db -Djdbc.user=... -Djdbc.password=... \
+ *     [-Dcache.endpoint=host[:port][,...]] \
+ *     com.amediamanager.util.VideoCatalogImporter catalog.ndjson [chunkSize]
+ * </pre>
+ *
+ * With cache.endpoint set to the application's memcached cluster, the cached
+ * videos and tags of the users in each chunk are retired once the chunk is
+ * committed. Application nodes may still serve their near-cached copies for
+ * a few seconds. Without it, users see imported videos only once their
+ * cached pages expire.
+ */
+public class VideoCatalogImporter {
+    private static final Logger LOG = LoggerFactory.getLogger(VideoCatalogImporter.class);
+
+    private static final int DEFAULT_CHUNK_SIZE = 1000;
+    private static final int DEFAULT_CACHE_PORT = 11211;
+
+    public static void main(String[] args) throws IOException {
+        final int chunkSize = args.length > 1 ? parseChunkSize(args[1]) : DEFAULT_CHUNK_SIZE;
+        if (args.length < 1 || System.getProperty("jdbc.url") == null || chunkSize <= 0) {
+            System.err.println("Usage: -Djdbc.url=... -Djdbc.user=... -Djdbc.password=... [-Dcache.endpoint=...] "
+                    + VideoCatalogImporter.class.getName() + " <catalog.ndjson> [chunkSize]");
+            System.err.println("chunkSize must be a positive number, default " + DEFAULT_CHUNK_SIZE);
+            System.exit(1);
+        }
+
+        Configuration configuration = new Configuration()
+                .addAnnotatedClass(Video.class)
+                .addAnnotatedClass(Tag.class)
+                .setProperty(Environment.DRIVER, System.getProperty("jdbc.driver", "com.mysql.jdbc.Driver"))
+                .setProperty(Environment.URL, System.getProperty("jdbc.url"))
+                .setProperty(Environment.USER, System.getProperty("jdbc.user", ""))
+                .setProperty(Environment.PASS, System.getProperty("jdbc.password", ""))
+                .setProperty(Environment.USE_SECOND_LEVEL_CACHE, "false")
+                .setProperty(Environment.USE_QUERY_CACHE, "false");
+        ServiceRegistry serviceRegistry = new ServiceRegistryBuilder()
+                .applySettings(configuration.getProperties())
+                .buildServiceRegistry();
+        SessionFactory sessionFactory = configuration.buildSessionFactory(serviceRegistry);
+
+        MemcachedClient memcached = null;
+        if (System.getProperty("cache.endpoint") != null) {
+            memcached = ServerConfig.newMemcachedClient(System.getProperty("cache.endpoint"),
+                    Integer.getInteger("cache.port", DEFAULT_CACHE_PORT));
+        } else {
+            LOG.warn("No cache.endpoint given, cached pages of the imported users will be stale until they expire");
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), Charsets.UTF_8));
+        try {
+            MappingIterator<JsonNode> lines = new ObjectMapper().reader(JsonNode.class).readValues(reader);
+
+            RdsVideoDaoImpl videoDao = new RdsVideoDaoImpl();
+            videoDao.setSessionFactory(sessionFactory);
+
+            final long startTime = System.currentTimeMillis();
+            int imported = videoDao.bulkImport(new VideoIterator(lines), chunkSize,
+                    memcached == null ? null : new CacheInvalidator(memcached));
+            LOG.info("Imported {} videos in {}s", imported, (System.currentTimeMillis() - startTime) / 1000);
+        } finally {
+            reader.close();
+            sessionFactory.close();
+            if (memcached != null) {
+                // Let the queued invalidations go out
+                memcached.shutdown(30, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * @return the chunk size, or -1 if it isn't a number
+     */
+    private static int parseChunkSize(String chunkSize) {
+        try {
+            return Integer.parseInt(chunkSize.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Retires the cached videos and tags of the owners of each imported
+     * chunk, like the services do after a write.
+     */
+    private static class CacheInvalidator implements VideoDao.ImportListener {
+        private final MemcachedClient memcached;
+
+        CacheInvalidator(MemcachedClient memcached) {
+            this.memcached = memcached;
+        }
+
+        @Override
+        public void chunkCommitted(Set<String> owners) {
+            for (String owner : owners) {
+                memcached.asyncIncr(UserCacheKeys.videoPageGeneration(owner), 1);
+                memcached.delete(UserCacheKeys.tagList(owner));
+                memcached.asyncIncr(UserCacheKeys.tagPageGeneration(owner), 1);
+            }
+            LOG.info("Invalidated the cache of {} users", owners.size());
+        }
+    }
+
+    /**
+     * Turns catalog lines into Videos as they are read.
+     */
+    private static class VideoIterator implements Iterator<Video> {
+        private final MappingIterator<JsonNode> lines;
+        private int lineNumber;
+
+        VideoIterator(MappingIterator<JsonNode> lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return lines.hasNext();
+        }
+
+        @Override
+        public Video next() {
+            JsonNode line = lines.next();
+            lineNumber++;
+            try {
+                return toVideo(line);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Invalid video on line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private Video toVideo(JsonNode line) throws ParseException {
+            if (!line.hasNonNull("id") || !line.hasNonNull("owner") || !line.hasNonNull("originalKey")) {
+                throw new IllegalArgumentException("id, owner and originalKey are required");
+            }
+
+            Video video = new Video();
+            video.setId(line.get("id").asText());
+            video.setOwner(line.get("owner").asText());
+            video.setOriginalKey(line.get("originalKey").asText());
+            video.setBucket(text(line, "bucket"));
+            video.setTitle(text(line, "title"));
+            video.setDescription(text(line, "description"));
+            video.setThumbnailKey(text(line, "thumbnailKey"));
+            video.setPreviewKey(text(line, "previewKey"));
+            video.setTranscodeJobId(text(line, "transcodeJobId"));
+            if (line.hasNonNull("privacy")) {
+                video.setPrivacy(Privacy.fromName(line.get("privacy").asText()));
+            }
+            if (line.hasNonNull("createdDate")) {
+                video.setCreatedDate(new SimpleDateFormat("MM/dd/yyyy").parse(line.get("createdDate").asText()));
+            }
+            video.setUploadedDate(line.hasNonNull("uploadedDate")
+                    ? new Date(line.get("uploadedDate").asLong()) : new Date());
+
+            Set<Tag> tags = new HashSet<Tag>();
+            if (line.has("tags")) {
+                for (JsonNode tag : line.get("tags")) {
+                    String name = tag.asText().trim();
+                    if (!name.isEmpty()) {
+                        tags.add(new Tag(name));
+                    }
+                }
+            }
+            video.setTags(tags);
+            return video;
+        }
+
+        private static String text(JsonNode line, String field) {
+            return line.hasNonNull(field) ? line.get(field).asText() : null;
+        }
+    }
+}
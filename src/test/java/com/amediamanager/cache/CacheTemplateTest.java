@@ -0,0 +1,344 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.spy.memcached.MemcachedClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amediamanager.config.ConfigurationSettings.ConfigProps;
+import com.amediamanager.config.TestConfigurationSettings;
+import com.google.common.base.Function;
+
+public class CacheTemplateTest {
+	private static final int TTL_SECONDS = 60;
+
+	private MemcachedServer server;
+	private MemcachedClient client;
+	private LocalInvalidationChannel channel;
+	private CacheTemplate cache;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new MemcachedServer();
+		client = server.newClient();
+		channel = new SharedInvalidationChannel();
+		cache = MemcachedServer.newCacheTemplate(client, channel);
+	}
+
+	@After
+	public void tearDown() {
+		cache.shutdown();
+		client.shutdown(1, TimeUnit.SECONDS);
+		server.stop();
+	}
+
+	@Test
+	public void missIsLoadedAndCached() throws Exception {
+		CountingLoader loader = new CountingLoader("v1");
+
+		assertEquals("v1", cache.get("Test", "key", TTL_SECONDS, loader));
+		assertEquals("v1", cache.get("Test", "key", TTL_SECONDS, loader));
+
+		assertEquals(1, loader.calls.get());
+		assertEquals("v1", ((CacheEntry<?>) client.get("key")).getValue());
+	}
+
+	@Test
+	public void nearCacheServesWithoutMemcached() throws Exception {
+		cache.get("Test", "key", TTL_SECONDS, new CountingLoader("v1"));
+		client.delete("key").get();
+
+		CountingLoader loader = new CountingLoader("v2");
+		assertEquals("v1", cache.get("Test", "key", TTL_SECONDS, loader));
+		assertEquals(0, loader.calls.get());
+	}
+
+	@Test
+	public void memcachedValueIsUsedByOtherNodes() throws Exception {
+		cache.get("Test", "key", TTL_SECONDS, new CountingLoader("v1"));
+		CacheTemplate other = MemcachedServer.newCacheTemplate(client, channel);
+
+		CountingLoader loader = new CountingLoader("v2");
+		assertEquals("v1", other.get("Test", "key", TTL_SECONDS, loader));
+		assertEquals(0, loader.calls.get());
+		other.shutdown();
+	}
+
+	@Test
+	public void getAllLoadsOnlyMisses() throws Exception {
+		cache.get("Test", "a", TTL_SECONDS, new CountingLoader("a1"));
+		CacheTemplate other = MemcachedServer.newCacheTemplate(client, channel);
+		other.get("Test", "b", TTL_SECONDS, new CountingLoader("b1"));
+
+		CountingLoader loader = new CountingLoader("new");
+		CacheRequest<String> a = new CacheRequest<String>("Test", "a", TTL_SECONDS, loader);
+		CacheRequest<String> b = new CacheRequest<String>("Test", "b", TTL_SECONDS, loader);
+		CacheRequest<String> c = new CacheRequest<String>("Test", "c", TTL_SECONDS, loader);
+		CacheRequest<String> d = new CacheRequest<String>("Test", "d", TTL_SECONDS, loader);
+		cache.getAll(a, b, c, d);
+
+		assertEquals("a1", a.getValue());
+		assertEquals("b1", b.getValue());
+		assertEquals("new", c.getValue());
+		assertEquals("new", d.getValue());
+		assertEquals(2, loader.calls.get());
+		other.shutdown();
+	}
+
+	@Test
+	public void concurrentMissesShareOneLoad() throws Exception {
+		final CountDownLatch loading = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		final Callable<String> slowLoader = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				calls.incrementAndGet();
+				loading.countDown();
+				Thread.sleep(200);
+				return "v1";
+			}
+		};
+		Thread first = new Thread() {
+			@Override
+			public void run() {
+				cache.get("Test", "key", TTL_SECONDS, slowLoader);
+			}
+		};
+		first.start();
+		loading.await();
+
+		assertEquals("v1", cache.get("Test", "key", TTL_SECONDS, slowLoader));
+		first.join();
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void disabledCacheCallsLoader() throws Exception {
+		CacheTemplate disabled = MemcachedServer.newCacheTemplate(client, channel);
+		disabled.config = new TestConfigurationSettings().with(ConfigProps.CACHE_ENABLED, "false");
+		CountingLoader loader = new CountingLoader("v1");
+
+		assertEquals("v1", disabled.get("Test", "key", TTL_SECONDS, loader));
+		assertEquals("v1", disabled.get("Test", "key", TTL_SECONDS, loader));
+
+		assertEquals(2, loader.calls.get());
+		assertNull(client.get("key"));
+		disabled.shutdown();
+	}
+
+	@Test
+	public void lostMemcachedIsSkippedAfterRepeatedFailures() throws Exception {
+		cache.config = new TestConfigurationSettings().with(ConfigProps.CACHE_TIMEOUT_MILLIS, "50");
+		server.stop();
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals("v" + i, cache.get("Test", "key" + i, TTL_SECONDS, new CountingLoader("v" + i)));
+		}
+		final long startTime = System.currentTimeMillis();
+		assertEquals("v", cache.get("Test", "other", TTL_SECONDS, new CountingLoader("v")));
+		assertTrue(System.currentTimeMillis() - startTime < 50);
+	}
+
+	@Test
+	public void generationIsServedLocallyAfterFirstRead() throws Exception {
+		String generation = cache.getGeneration("gen");
+		cache.config = new TestConfigurationSettings().with(ConfigProps.CACHE_TIMEOUT_MILLIS, "1000");
+		server.stop();
+
+		final long startTime = System.currentTimeMillis();
+		assertEquals(generation, cache.getGeneration("gen"));
+		assertTrue(System.currentTimeMillis() - startTime < 50);
+	}
+
+	@Test
+	public void incrementedGenerationIsSeenByAllNodes() throws Exception {
+		// jmemcached's incr only handles int values, unlike memcached
+		client.set("gen", 0, "5").get();
+		CacheTemplate other = MemcachedServer.newCacheTemplate(client, channel);
+		assertEquals("5", cache.getGeneration("gen"));
+		assertEquals("5", other.getGeneration("gen"));
+
+		// Operations on a key are sent in order, so the next read sees the incr
+		other.incrementGeneration("gen");
+
+		assertEquals("6", cache.getGeneration("gen"));
+		assertEquals("6", other.getGeneration("gen"));
+		other.shutdown();
+	}
+
+	@Test
+	public void leaseHeldElsewhereLoadsAfterShortWait() throws Exception {
+		client.add("key-lease", TTL_SECONDS, "other-node").get();
+		CountingLoader loader = new CountingLoader("new");
+
+		final long startTime = System.currentTimeMillis();
+		assertEquals("new", cache.get("Test", "key", TTL_SECONDS, loader));
+		final long elapsed = System.currentTimeMillis() - startTime;
+
+		assertEquals(1, loader.calls.get());
+		assertTrue("waited " + elapsed + "ms", elapsed >= 100 && elapsed < 400);
+	}
+
+	@Test
+	public void leaseHeldElsewhereServesOldValue() throws Exception {
+		client.set("key", TTL_SECONDS, new CacheEntry<String>("old", System.currentTimeMillis() - 1, 0)).get();
+		client.add("key-lease", TTL_SECONDS, "other-node").get();
+		CountingLoader loader = new CountingLoader("new");
+
+		final long startTime = System.currentTimeMillis();
+		assertEquals("old", cache.get("Test", "key", TTL_SECONDS, loader));
+
+		assertEquals(0, loader.calls.get());
+		assertTrue(System.currentTimeMillis() - startTime < 100);
+	}
+
+	@Test
+	public void leaseHolderValueIsUsedWhileWaiting() throws Exception {
+		client.add("key-lease", TTL_SECONDS, "other-node").get();
+		Thread holder = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(30);
+					client.set("key", TTL_SECONDS,
+							new CacheEntry<String>("theirs", System.currentTimeMillis() + 60000, 0)).get();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		holder.start();
+		CountingLoader loader = new CountingLoader("new");
+
+		assertEquals("theirs", cache.get("Test", "key", TTL_SECONDS, loader));
+		holder.join();
+
+		assertEquals(0, loader.calls.get());
+	}
+
+	@Test
+	public void leaseIsReleasedAfterLoading() throws Exception {
+		cache.get("Test", "key", TTL_SECONDS, new CountingLoader("new"));
+
+		assertNull(client.get("key-lease"));
+	}
+
+	@Test
+	public void updatePatchesValueForOtherNodes() throws Exception {
+		CacheTemplate other = MemcachedServer.newCacheTemplate(client, channel);
+		assertEquals("v1", cache.get("Test", "key", TTL_SECONDS, new CountingLoader("v1")));
+		assertEquals("v1", other.get("Test", "key", TTL_SECONDS, new CountingLoader("v1")));
+
+		assertTrue(cache.update("Test", "key", TTL_SECONDS, append("!")));
+
+		CountingLoader loader = new CountingLoader("v2");
+		assertEquals("v1!", other.get("Test", "key", TTL_SECONDS, loader));
+		assertEquals("v1!", cache.get("Test", "key", TTL_SECONDS, loader));
+		assertEquals(0, loader.calls.get());
+		other.shutdown();
+	}
+
+	@Test
+	public void updateOfEvictedKeyDropsNearCaches() throws Exception {
+		CacheTemplate other = MemcachedServer.newCacheTemplate(client, channel);
+		cache.get("Test", "key", TTL_SECONDS, new CountingLoader("v1"));
+		other.get("Test", "key", TTL_SECONDS, new CountingLoader("v1"));
+		client.delete("key").get();
+
+		assertTrue(cache.update("Test", "key", TTL_SECONDS, append("!")));
+
+		assertEquals("v2", other.get("Test", "key", TTL_SECONDS, new CountingLoader("v2")));
+		assertEquals("v2", cache.get("Test", "key", TTL_SECONDS, new CountingLoader("v3")));
+		other.shutdown();
+	}
+
+	@Test
+	public void failedUpdateDropsNearCaches() throws Exception {
+		CacheTemplate other = MemcachedServer.newCacheTemplate(client, channel);
+		cache.get("Test", "key", TTL_SECONDS, new CountingLoader("v1"));
+		other.get("Test", "key", TTL_SECONDS, new CountingLoader("v1"));
+
+		assertFalse(cache.update("Test", "key", TTL_SECONDS, new Function<String, String>() {
+			@Override
+			public String apply(String value) {
+				return null;
+			}
+		}));
+
+		client.delete("key").get();
+		assertEquals("v2", other.get("Test", "key", TTL_SECONDS, new CountingLoader("v2")));
+		other.shutdown();
+	}
+
+	@Test
+	public void deleteDropsNearCaches() throws Exception {
+		CacheTemplate other = MemcachedServer.newCacheTemplate(client, channel);
+		cache.get("Test", "key", TTL_SECONDS, new CountingLoader("v1"));
+		other.get("Test", "key", TTL_SECONDS, new CountingLoader("v1"));
+
+		cache.delete("key");
+
+		assertEquals("v2", other.get("Test", "key", TTL_SECONDS, new CountingLoader("v2")));
+		other.shutdown();
+	}
+
+	private static Function<String, String> append(final String suffix) {
+		return new Function<String, String>() {
+			@Override
+			public String apply(String value) {
+				return value + suffix;
+			}
+		};
+	}
+
+	/**
+	 * Delivers published keys to every template subscribed to it, like
+	 * instances sharing a topic.
+	 */
+	static class SharedInvalidationChannel extends LocalInvalidationChannel {
+		@Override
+		public void publish(String key) {
+			deliver(key);
+		}
+	}
+
+	static class CountingLoader implements Callable<String> {
+		final AtomicInteger calls = new AtomicInteger();
+		private final String value;
+
+		CountingLoader(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public String call() {
+			calls.incrementAndGet();
+			return value;
+		}
+	}
+}
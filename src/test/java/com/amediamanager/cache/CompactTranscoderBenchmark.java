@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.amediamanager.dao.VideoPage;
+import com.amediamanager.domain.Video;
+
+/**
+ * Encoding and decoding a cached video page with CompactTranscoder against
+ * the SerializingTranscoder it replaced. Run with -prof gc for allocation
+ * per operation; the encoded sizes are printed at setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompactTranscoderBenchmark {
+
+	/** A page as listed, and a page of a user with many videos cached whole */
+	@Param({ "24", "500" })
+	int videos;
+
+	private final Transcoder<Object> compact = new CompactTranscoder();
+	private final Transcoder<Object> serializing = new SerializingTranscoder();
+
+	private CacheEntry<VideoPage> entry;
+	private CachedData compactData;
+	private CachedData serializedData;
+
+	@Setup
+	public void setUp() {
+		List<Video> page = new ArrayList<Video>();
+		for (int i = 0; i < videos; i++) {
+			page.add(CompactTranscoderTest.video("video-" + i, "Title " + i));
+		}
+		entry = new CacheEntry<VideoPage>(new VideoPage(page, "1000_video"), System.currentTimeMillis(), 10);
+		compactData = compact.encode(entry);
+		serializedData = serializing.encode(entry);
+		System.out.println("Encoded " + videos + " videos: compact " + compactData.getData().length
+				+ " bytes, serialized " + serializedData.getData().length + " bytes");
+	}
+
+	@Benchmark
+	public CachedData encodeCompact() {
+		return compact.encode(entry);
+	}
+
+	@Benchmark
+	public CachedData encodeSerialized() {
+		return serializing.encode(entry);
+	}
+
+	@Benchmark
+	public Object decodeCompact() {
+		return compact.decode(compactData);
+	}
+
+	@Benchmark
+	public Object decodeSerialized() {
+		return serializing.decode(serializedData);
+	}
+
+	/**
+	 * Takes the usual JMH options, e.g. -prof gc.
+	 */
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+		                               .include(CompactTranscoderBenchmark.class.getSimpleName())
+		                               .build()).run();
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import net.spy.memcached.CachedData;
+
+import org.junit.Test;
+
+import com.amediamanager.dao.TagCount;
+import com.amediamanager.dao.VideoPage;
+import com.amediamanager.domain.Privacy;
+import com.amediamanager.domain.Tag;
+import com.amediamanager.domain.Video;
+
+public class CompactTranscoderTest {
+	private final CompactTranscoder transcoder = new CompactTranscoder();
+
+	@Test
+	public void videoPageRoundTrip() {
+		Video video = video("v1", "A title");
+		VideoPage page = new VideoPage(Arrays.asList(video, video("v2", null)), "1000_v2");
+
+		CacheEntry<VideoPage> decoded = roundTrip(new CacheEntry<VideoPage>(page, 12345L, 67L));
+
+		assertEquals(12345L, decoded.getExpiresAt());
+		assertEquals(67L, decoded.getLoadMillis());
+		assertEquals("1000_v2", decoded.getValue().getNextCursor());
+		assertEquals(2, decoded.getValue().getVideos().size());
+		assertVideoEquals(video, decoded.getValue().getVideos().get(0));
+		assertNull(decoded.getValue().getVideos().get(1).getTitle());
+	}
+
+	@Test
+	public void videoWithoutOptionalFieldsRoundTrip() {
+		Video video = new Video();
+		video.setId("v1");
+		video.setPrivacy(null);
+
+		CacheEntry<List<Video>> decoded = roundTrip(new CacheEntry<List<Video>>(Arrays.asList(video), 1, 0));
+
+		Video copy = decoded.getValue().get(0);
+		assertEquals("v1", copy.getId());
+		assertNull(copy.getPrivacy());
+		assertNull(copy.getUploadedDate());
+		assertNull(copy.getTags());
+	}
+
+	@Test
+	public void stringsLongerThan64KbRoundTrip() {
+		StringBuilder description = new StringBuilder();
+		while (description.length() < 100000) {
+			description.append("d\u00e9j\u00e0 vu \u4e2d, ");
+		}
+		Video video = video("v1", "Long");
+		video.setDescription(description.toString());
+
+		CacheEntry<List<Video>> decoded = roundTrip(new CacheEntry<List<Video>>(Arrays.asList(video), 1, 0));
+
+		assertEquals(video.getDescription(), decoded.getValue().get(0).getDescription());
+	}
+
+	@Test
+	public void largeValuesAreCompressed() {
+		List<Video> videos = new ArrayList<Video>();
+		for (int i = 0; i < 200; i++) {
+			videos.add(video("v" + i, "Title " + i));
+		}
+
+		CachedData encoded = transcoder.encode(new CacheEntry<List<Video>>(videos, 1, 0));
+		@SuppressWarnings("unchecked")
+		CacheEntry<List<Video>> decoded = (CacheEntry<List<Video>>) transcoder.decode(encoded);
+
+		assertTrue((encoded.getFlags() & 2) != 0);
+		assertEquals(200, decoded.getValue().size());
+		assertVideoEquals(videos.get(199), decoded.getValue().get(199));
+	}
+
+	@Test
+	public void tagCountsRoundTrip() {
+		List<TagCount> tags = Arrays.asList(new TagCount("cats", "Cats", 3), new TagCount("dogs", "Dogs", 1));
+
+		CacheEntry<List<TagCount>> decoded = roundTrip(new CacheEntry<List<TagCount>>(tags, 1, 0));
+
+		assertEquals(2, decoded.getValue().size());
+		assertEquals("Cats", decoded.getValue().get(0).getName());
+		assertEquals(1, decoded.getValue().get(1).getCount());
+	}
+
+	@Test
+	public void emptyListRoundTrip() {
+		CacheEntry<List<Video>> decoded = roundTrip(new CacheEntry<List<Video>>(Collections.<Video>emptyList(), 1, 0));
+
+		assertTrue(decoded.getValue().isEmpty());
+	}
+
+	@Test
+	public void otherValuesAreSerialized() {
+		assertEquals("1234", transcoder.decode(transcoder.encode("1234")));
+		CacheEntry<String> decoded = roundTrip(new CacheEntry<String>("value", 1, 0));
+		assertEquals("value", decoded.getValue());
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> CacheEntry<T> roundTrip(CacheEntry<T> entry) {
+		return (CacheEntry<T>) transcoder.decode(transcoder.encode(entry));
+	}
+
+	static Video video(String id, String title) {
+		Video video = new Video();
+		video.setId(id);
+		video.setOwner("owner@example.com");
+		video.setBucket("bucket");
+		video.setOriginalKey("uploads/" + id + ".mp4");
+		video.setThumbnailKey("thumbnails/" + id + ".png");
+		video.setPreviewKey("previews/" + id + ".mp4");
+		video.setTranscodeJobId("job-" + id);
+		video.setTitle(title);
+		video.setDescription("A description of " + id);
+		video.setUploadedDate(new Date(1000));
+		video.setCreatedDate(new Date(2000));
+		video.setPrivacy(Privacy.SHARED);
+		Tag tag = new Tag("cats");
+		tag.setName("Cats");
+		video.setTags(new HashSet<Tag>(Arrays.asList(tag)));
+		return video;
+	}
+
+	private static void assertVideoEquals(Video expected, Video actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getOwner(), actual.getOwner());
+		assertEquals(expected.getBucket(), actual.getBucket());
+		assertEquals(expected.getOriginalKey(), actual.getOriginalKey());
+		assertEquals(expected.getThumbnailKey(), actual.getThumbnailKey());
+		assertEquals(expected.getPreviewKey(), actual.getPreviewKey());
+		assertEquals(expected.getTranscodeJobId(), actual.getTranscodeJobId());
+		assertEquals(expected.getTitle(), actual.getTitle());
+		assertEquals(expected.getDescription(), actual.getDescription());
+		assertEquals(expected.getUploadedDate(), actual.getUploadedDate());
+		assertEquals(expected.getCreatedDate(), actual.getCreatedDate());
+		assertEquals(expected.getPrivacy(), actual.getPrivacy());
+		assertEquals(1, actual.getTags().size());
+		Tag tag = actual.getTags().iterator().next();
+		assertEquals("cats", tag.getTagId());
+		assertEquals("Cats", tag.getName());
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import net.spy.memcached.MemcachedClient;
+
+import com.amediamanager.config.TestConfigurationSettings;
+import com.amediamanager.metrics.MetricBatcher;
+import com.amediamanager.springconfig.ServerConfig;
+import com.thimbleware.jmemcached.CacheImpl;
+import com.thimbleware.jmemcached.Key;
+import com.thimbleware.jmemcached.LocalCacheElement;
+import com.thimbleware.jmemcached.MemCacheDaemon;
+import com.thimbleware.jmemcached.storage.CacheStorage;
+import com.thimbleware.jmemcached.storage.hash.ConcurrentLinkedHashMap;
+
+/**
+ * An in-process memcached (text protocol) on a free local port, and clients
+ * and cache templates for it configured like the application's.
+ */
+public class MemcachedServer {
+	private static final int MAX_ITEMS = 10000;
+	private static final long MAX_BYTES = 64 * 1024 * 1024;
+
+	private final MemCacheDaemon<LocalCacheElement> daemon = new MemCacheDaemon<LocalCacheElement>();
+	private final int port;
+
+	public MemcachedServer() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		port = socket.getLocalPort();
+		socket.close();
+
+		CacheStorage<Key, LocalCacheElement> storage = ConcurrentLinkedHashMap.create(
+				ConcurrentLinkedHashMap.EvictionPolicy.LRU, MAX_ITEMS, MAX_BYTES);
+		daemon.setCache(new CacheImpl(storage));
+		daemon.setBinary(false);
+		daemon.setAddr(new InetSocketAddress("127.0.0.1", port));
+		daemon.start();
+	}
+
+	public MemcachedClient newClient() throws IOException {
+		return ServerConfig.newMemcachedClient("127.0.0.1", port);
+	}
+
+	/**
+	 * A cache template on the client, with the test app.properties.
+	 */
+	public static CacheTemplate newCacheTemplate(MemcachedClient client, InvalidationChannel channel)
+			throws IOException {
+		CacheTemplate cache = new CacheTemplate();
+		cache.memcachedClient = client;
+		cache.config = new TestConfigurationSettings();
+		cache.metricBatcher = new MetricBatcher(null);
+		cache.invalidationChannel = channel;
+		cache.subscribe();
+		return cache;
+	}
+
+	public void stop() {
+		daemon.stop();
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.PublishRequest;
+import com.amazonaws.services.sns.model.PublishResult;
+
+public class SnsInvalidationChannelTest {
+	private final CountDownLatch snsAvailable = new CountDownLatch(1);
+	private final List<String> published = new CopyOnWriteArrayList<String>();
+	private SnsInvalidationChannel channel;
+
+	@Before
+	public void setUp() {
+		// Holds every publish until the test makes SNS available
+		AmazonSNSClient snsClient = new AmazonSNSClient(new BasicAWSCredentials("KEY", "secret")) {
+			@Override
+			public PublishResult publish(PublishRequest request) {
+				try {
+					snsAvailable.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				published.add(request.getMessage().split("\n", 2)[1]);
+				return new PublishResult();
+			}
+		};
+		channel = new SnsInvalidationChannel(snsClient, null, "arn:aws:sns:us-east-1:123456789012:invalidations");
+	}
+
+	@After
+	public void tearDown() {
+		snsAvailable.countDown();
+	}
+
+	@Test
+	public void publishDoesNotWaitForSns() throws Exception {
+		final long start = System.nanoTime();
+		channel.publish("a");
+		channel.publish("b");
+		channel.publish("c");
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+		assertTrue(published.isEmpty());
+
+		snsAvailable.countDown();
+
+		assertEquals(3, awaitPublished(3));
+	}
+
+	@Test
+	public void invalidationsBeyondTheQueueAreDropped() throws Exception {
+		final int accepted = SnsInvalidationChannel.PUBLISH_THREADS + SnsInvalidationChannel.PUBLISH_QUEUE_SIZE;
+		for (int i = 0; i < accepted + 10; i++) {
+			channel.publish("key-" + i);
+		}
+
+		snsAvailable.countDown();
+
+		assertEquals(accepted, awaitPublished(accepted));
+		Thread.sleep(100);
+		assertEquals(accepted, published.size());
+	}
+
+	private int awaitPublished(int expected) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (published.size() < expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		return published.size();
+	}
+}
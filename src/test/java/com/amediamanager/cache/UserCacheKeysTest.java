@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.amediamanager.dao.VideoCursor;
+import com.google.common.base.Strings;
+
+public class UserCacheKeysTest {
+
+	@Test
+	public void firstPageHasNoCursor() {
+		assertEquals("first", UserCacheKeys.pagePosition(null));
+	}
+
+	@Test
+	public void anyCursorMakesAMemcachedSafePosition() {
+		String position = UserCacheKeys.pagePosition(
+				VideoCursor.parse("1000_a video id with spaces " + Strings.repeat("x", 1000)));
+
+		assertTrue(position.matches("[0-9a-f]{32}"));
+	}
+
+	@Test
+	public void sameCursorMakesSamePosition() {
+		assertEquals(UserCacheKeys.pagePosition(VideoCursor.parse("1000_abc")),
+				UserCacheKeys.pagePosition(VideoCursor.parse("01000_abc")));
+		assertFalse(UserCacheKeys.pagePosition(VideoCursor.parse("1000_abc"))
+				.equals(UserCacheKeys.pagePosition(VideoCursor.parse("1000_abd"))));
+	}
+}
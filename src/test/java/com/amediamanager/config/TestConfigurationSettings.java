@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.config;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Settings from the test app.properties, with per-test overrides.
+ */
+public class TestConfigurationSettings extends ConfigurationSettings {
+	private final Map<ConfigProps, String> overrides = new ConcurrentHashMap<ConfigProps, String>();
+
+	public TestConfigurationSettings() throws IOException {
+		super();
+	}
+
+	public TestConfigurationSettings with(ConfigProps property, String value) {
+		overrides.put(property, value);
+		return this;
+	}
+
+	@Override
+	public String getProperty(ConfigProps property) {
+		String value = overrides.get(property);
+		return value != null ? value : super.getProperty(property);
+	}
+}
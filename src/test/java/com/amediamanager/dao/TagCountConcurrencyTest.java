@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.dao;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.amediamanager.domain.Tag;
+import com.amediamanager.domain.Video;
+
+/**
+ * user_tag_counts are maintained from the difference between a video's
+ * stored and new tags, so concurrent updates of one video must not both
+ * diff against the same stored state.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = DaoTestConfig.class)
+public class TagCountConcurrencyTest {
+	private static final int UPDATES_PER_THREAD = 50;
+
+	@Autowired
+	private VideoDao videoDao;
+
+	@Autowired
+	private TagDao tagDao;
+
+	@Test
+	public void concurrentUpdatesKeepCountsInLineWithTags() throws Exception {
+		final String owner = UUID.randomUUID() + "@example.com";
+		final String videoId = UUID.randomUUID().toString();
+		videoDao.save(video(owner, videoId, "shared"));
+
+		ExecutorService threads = Executors.newFixedThreadPool(2);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			List<Future<Void>> updates = new ArrayList<Future<Void>>();
+			for (final String tag : Arrays.asList("left", "right")) {
+				updates.add(threads.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						start.await();
+						for (int i = 0; i < UPDATES_PER_THREAD; i++) {
+							videoDao.update(i % 2 == 0
+									? video(owner, videoId, "shared", tag)
+									: video(owner, videoId, tag + "-" + i));
+						}
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<Void> update : updates) {
+				update.get();
+			}
+		} finally {
+			threads.shutdown();
+		}
+
+		Map<String, Long> expected = new TreeMap<String, Long>();
+		for (Tag tag : videoDao.findById(videoId).getTags()) {
+			expected.put(tag.getTagId(), 1L);
+		}
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (TagCount count : tagDao.getTagsForUser(owner)) {
+			counts.put(count.getTagId(), count.getCount());
+		}
+		assertEquals(expected, counts);
+	}
+
+	private static Video video(String owner, String videoId, String... tags) {
+		Video video = new Video();
+		video.setId(videoId);
+		video.setOwner(owner);
+		video.setBucket("bucket");
+		video.setOriginalKey("uploads/" + videoId);
+		video.setUploadedDate(new Date(0));
+		video.setTags(new HashSet<Tag>());
+		for (String tag : tags) {
+			video.getTags().add(new Tag(tag));
+		}
+		return video;
+	}
+}
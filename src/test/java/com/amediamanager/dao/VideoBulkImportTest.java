@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.amediamanager.domain.Privacy;
+import com.amediamanager.domain.Tag;
+import com.amediamanager.domain.Video;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = DaoTestConfig.class)
+public class VideoBulkImportTest {
+
+	@Autowired
+	private VideoDao videoDao;
+
+	@Autowired
+	private TagDao tagDao;
+
+	@Test
+	public void listenerIsToldTheOwnersOfEachCommittedChunk() {
+		String alice = UUID.randomUUID() + "@example.com";
+		String bob = UUID.randomUUID() + "@example.com";
+		List<Video> videos = Arrays.asList(video(alice), video(alice), video(bob), video(alice), video(bob));
+		RecordingListener listener = new RecordingListener();
+
+		assertEquals(5, videoDao.bulkImport(videos.iterator(), 2, listener));
+
+		assertEquals(Arrays.<Set<String>>asList(
+				new HashSet<String>(Arrays.asList(alice)),
+				new HashSet<String>(Arrays.asList(alice, bob)),
+				new HashSet<String>(Arrays.asList(bob))), listener.chunks);
+		assertEquals(3, videoDao.findByUserId(alice, null, 10).getVideos().size());
+		assertEquals(2, tagDao.getTagsForUser(bob).get(0).getCount());
+	}
+
+	@Test
+	public void reimportSkipsExistingVideosWithoutNotifying() {
+		List<Video> videos = Arrays.asList(video(UUID.randomUUID() + "@example.com"));
+		videoDao.bulkImport(videos.iterator(), 10, null);
+		RecordingListener listener = new RecordingListener();
+
+		assertEquals(0, videoDao.bulkImport(videos.iterator(), 10, listener));
+		assertTrue(listener.chunks.isEmpty());
+	}
+
+	@Test
+	public void videoWithoutPrivacyIsImportedPrivate() {
+		Video video = video(UUID.randomUUID() + "@example.com");
+		video.setPrivacy(null);
+
+		assertEquals(1, videoDao.bulkImport(Collections.singletonList(video).iterator(), 10, null));
+		assertEquals(Privacy.PRIVATE, videoDao.findById(video.getId()).getPrivacy());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void chunkSizeMustBePositive() {
+		videoDao.bulkImport(Collections.<Video>emptyList().iterator(), 0, null);
+	}
+
+	private static Video video(String owner) {
+		Video video = new Video();
+		video.setId(UUID.randomUUID().toString());
+		video.setOwner(owner);
+		video.setBucket("bucket");
+		video.setOriginalKey("uploads/" + video.getId());
+		video.setUploadedDate(new Date());
+		video.setTags(new HashSet<Tag>(Arrays.asList(new Tag("imported"))));
+		return video;
+	}
+
+	private static class RecordingListener implements VideoDao.ImportListener {
+		private final List<Set<String>> chunks = new ArrayList<Set<String>>();
+
+		@Override
+		public void chunkCommitted(Set<String> owners) {
+			chunks.add(owners);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.amediamanager.domain.Tag;
+import com.amediamanager.domain.Video;
+
+/**
+ * Writes return the stored state they replaced, which the services use to
+ * patch the cache.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = DaoTestConfig.class)
+public class VideoDaoWriteTest {
+
+	@Autowired
+	private VideoDao videoDao;
+
+	@Test
+	public void saveOfNewVideoReturnsNull() {
+		assertNull(videoDao.save(video(UUID.randomUUID().toString(), "owner@example.com", "a")));
+	}
+
+	@Test
+	public void updateReturnsStoredOwnerAndTags() {
+		String id = UUID.randomUUID().toString();
+		videoDao.save(video(id, "before@example.com", "a", "b"));
+
+		Video previous = videoDao.update(video(id, "after@example.com", "c"));
+
+		assertEquals(id, previous.getId());
+		assertEquals("before@example.com", previous.getOwner());
+		assertEquals(new TreeSet<String>(Arrays.asList("a", "b")), tagIds(previous));
+	}
+
+	@Test
+	public void deleteReturnsStoredVideo() {
+		String id = UUID.randomUUID().toString();
+		videoDao.save(video(id, "owner@example.com", "a"));
+
+		Video previous = videoDao.delete(video(id, "owner@example.com", "a"));
+
+		assertEquals("owner@example.com", previous.getOwner());
+		assertEquals(new TreeSet<String>(Arrays.asList("a")), tagIds(previous));
+		assertNull(videoDao.findById(id));
+	}
+
+	private static Video video(String id, String owner, String... tags) {
+		Video video = new Video();
+		video.setId(id);
+		video.setOwner(owner);
+		video.setBucket("bucket");
+		video.setOriginalKey("uploads/" + id);
+		video.setUploadedDate(new Date());
+		video.setTags(new HashSet<Tag>());
+		for (String tag : tags) {
+			video.getTags().add(new Tag(tag));
+		}
+		return video;
+	}
+
+	private static Set<String> tagIds(Video video) {
+		Set<String> ids = new TreeSet<String>();
+		for (Tag tag : video.getTags()) {
+			ids.add(tag.getTagId());
+		}
+		return ids;
+	}
+}
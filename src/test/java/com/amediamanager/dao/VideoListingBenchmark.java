@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.amediamanager.domain.Tag;
+import com.amediamanager.domain.Video;
+
+/**
+ * Listing a page of a user's videos on H2: the column projection
+ * findByUserId uses, against loading the videos as entities with their tags
+ * batch-fetched, as it did before. Run with -prof gc for the heap allocated
+ * per page.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VideoListingBenchmark {
+	private static final int USER_VIDEOS = 2000;
+
+	@Param({ "24", "200" })
+	int pageSize;
+
+	private AnnotationConfigApplicationContext context;
+	private VideoDao videoDao;
+	private SessionFactory sessionFactory;
+	private TransactionTemplate transactions;
+	private String owner;
+
+	@Setup
+	public void setUp() {
+		context = new AnnotationConfigApplicationContext(DaoTestConfig.class);
+		videoDao = context.getBean(VideoDao.class);
+		sessionFactory = context.getBean(SessionFactory.class);
+		transactions = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+		sessionFactory.getStatistics().setStatisticsEnabled(false);
+
+		owner = UUID.randomUUID() + "@example.com";
+		List<Video> videos = new ArrayList<Video>();
+		for (int i = 0; i < USER_VIDEOS; i++) {
+			Video video = new Video();
+			video.setId(UUID.randomUUID().toString());
+			video.setOwner(owner);
+			video.setBucket("bucket");
+			video.setOriginalKey("uploads/" + video.getId());
+			video.setThumbnailKey("thumbnails/" + video.getId());
+			video.setTitle("Video " + i);
+			video.setDescription("The description of video " + i);
+			video.setUploadedDate(new Date(1000L * i));
+			video.setTags(new HashSet<Tag>(Arrays.asList(new Tag("all"), new Tag("tag-" + i % 50))));
+			videos.add(video);
+		}
+		videoDao.bulkImport(videos.iterator(), 500, null);
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public VideoPage projection() {
+		return videoDao.findByUserId(owner, null, pageSize);
+	}
+
+	@Benchmark
+	public VideoPage entities() {
+		return transactions.execute(new TransactionCallback<VideoPage>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public VideoPage doInTransaction(TransactionStatus status) {
+				List<Video> videos = sessionFactory.getCurrentSession()
+						.createQuery("from Video as video where video.owner = :owner"
+								+ " order by video.uploadedDate desc, video.id desc")
+						.setParameter("owner", owner)
+						.setMaxResults(pageSize + 1)
+						.list();
+				for (Video video : videos) {
+					video.getTags().size();
+				}
+				return VideoPage.fromResults(videos, pageSize);
+			}
+		});
+	}
+
+	/**
+	 * Takes the usual JMH options, e.g. -prof gc.
+	 */
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+		                               .include(VideoListingBenchmark.class.getSimpleName())
+		                               .build()).run();
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amediamanager.domain.Video;
+
+public class VideoPageTest {
+
+	@Test
+	public void insertPutsNewestVideoFirst() {
+		VideoPage page = new VideoPage(videos("b", 2000, "a", 1000), null);
+
+		VideoPage updated = page.withInserted(video("c", 3000), 3);
+
+		assertEquals(Arrays.asList("c", "b", "a"), ids(updated));
+		assertNull(updated.getNextCursor());
+	}
+
+	@Test
+	public void insertReplacesEntryWithSameId() {
+		VideoPage page = new VideoPage(videos("b", 2000, "a", 1000), null);
+
+		VideoPage updated = page.withInserted(video("b", 2000), 3);
+
+		assertEquals(Arrays.asList("b", "a"), ids(updated));
+	}
+
+	@Test
+	public void insertMovesEntryWithSameIdToItsNewPosition() {
+		VideoPage page = new VideoPage(videos("b", 2000, "a", 1000), null);
+
+		VideoPage updated = page.withInserted(video("a", 3000), 3);
+
+		assertEquals(Arrays.asList("a", "b"), ids(updated));
+	}
+
+	@Test
+	public void insertIntoFullPageMovesTheCursor() {
+		VideoPage page = new VideoPage(videos("b", 2000, "a", 1000), "1000_a");
+
+		VideoPage updated = page.withInserted(video("c", 3000), 2);
+
+		assertEquals(Arrays.asList("c", "b"), ids(updated));
+		assertEquals("2000_b", updated.getNextCursor());
+	}
+
+	@Test
+	public void insertAfterPageWithNextCursorIsRefused() {
+		VideoPage page = new VideoPage(videos("b", 2000, "a", 1000), "1000_a");
+
+		assertNull(page.withInserted(video("c", 500), 2));
+	}
+
+	@Test
+	public void removeFromLastPage() {
+		VideoPage page = new VideoPage(videos("b", 2000, "a", 1000), null);
+
+		assertEquals(Arrays.asList("a"), ids(page.withRemoved("b")));
+	}
+
+	private static List<Video> videos(Object... idsAndDates) {
+		List<Video> videos = new ArrayList<Video>();
+		for (int i = 0; i < idsAndDates.length; i += 2) {
+			videos.add(video((String) idsAndDates[i], (Integer) idsAndDates[i + 1]));
+		}
+		return videos;
+	}
+
+	private static Video video(String id, long uploadedMillis) {
+		Video video = new Video();
+		video.setId(id);
+		video.setUploadedDate(new Date(uploadedMillis));
+		return video;
+	}
+
+	private static List<String> ids(VideoPage page) {
+		List<String> ids = new ArrayList<String>();
+		for (Video video : page.getVideos()) {
+			ids.add(video.getId());
+		}
+		return ids;
+	}
+}
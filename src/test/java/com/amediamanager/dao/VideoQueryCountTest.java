@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.dao;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.amediamanager.domain.Tag;
+import com.amediamanager.domain.Video;
+
+/**
+ * Listing a page of videos must take a fixed number of statements, not one
+ * per video for its tags.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = DaoTestConfig.class)
+public class VideoQueryCountTest {
+	private static final int VIDEOS = 30;
+
+	@Autowired
+	private VideoDao videoDao;
+
+	@Autowired
+	private TagDao tagDao;
+
+	@Autowired
+	private SessionFactory sessionFactory;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private String owner;
+
+	@Before
+	public void addVideos() {
+		owner = UUID.randomUUID() + "@example.com";
+		for (int i = 0; i < VIDEOS; i++) {
+			Video video = new Video();
+			video.setId(UUID.randomUUID().toString());
+			video.setOwner(owner);
+			video.setBucket("bucket");
+			video.setOriginalKey("uploads/" + video.getId());
+			video.setTitle("Video " + i);
+			video.setUploadedDate(new Date(1000L * i));
+			video.setTags(new HashSet<Tag>(Arrays.asList(new Tag("all"), new Tag("video-" + i))));
+			videoDao.save(video);
+		}
+		statistics().clear();
+	}
+
+	@Test
+	public void entityQueryLoadsTagsInBatches() {
+		new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+			@SuppressWarnings("unchecked")
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				List<Video> videos = sessionFactory.getCurrentSession()
+						.createQuery("from Video as video where video.owner = :owner")
+						.setParameter("owner", owner)
+						.list();
+				assertEquals(VIDEOS, videos.size());
+				for (Video video : videos) {
+					assertEquals(2, video.getTags().size());
+				}
+			}
+		});
+
+		// The videos, then their tags with IN queries that Hibernate sizes
+		// 25 + 5; without @BatchSize it is one select per video, 31 in all
+		assertEquals(3, statistics().getPrepareStatementCount());
+	}
+
+	@Test
+	public void pageOfUserVideosTakesTwoStatements() {
+		VideoPage page = videoDao.findByUserId(owner, null, 24);
+
+		assertEquals(24, page.getVideos().size());
+		for (Video video : page.getVideos()) {
+			assertEquals(2, video.getTags().size());
+		}
+		assertEquals(2, statistics().getPrepareStatementCount());
+	}
+
+	@Test
+	public void pageOfVideosByTagTakesTwoStatements() {
+		VideoPage page = tagDao.getVideosForUserByTag(owner, "all", null, 24);
+
+		assertEquals(24, page.getVideos().size());
+		for (Video video : page.getVideos()) {
+			assertEquals(2, video.getTags().size());
+		}
+		assertEquals(2, statistics().getPrepareStatementCount());
+	}
+
+	private Statistics statistics() {
+		return sessionFactory.getStatistics();
+	}
+}
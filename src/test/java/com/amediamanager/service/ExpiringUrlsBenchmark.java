@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.internal.StaticCredentialsProvider;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amediamanager.config.TestConfigurationSettings;
+import com.amediamanager.domain.Video;
+import com.amediamanager.domain.VideoView;
+import com.amediamanager.util.PresignedUrlCache;
+
+/**
+ * Signing the URLs of a list of videos in batches on the signing pool, as
+ * generateExpiringUrls does, against signing them all on the request thread.
+ * With signedBefore the URLs are already in the PresignedUrlCache, as they
+ * are for any list viewed again within a reuse window; otherwise every URL
+ * is signed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExpiringUrlsBenchmark {
+	private static final long LIFETIME_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	@Param({ "10", "24", "100", "1000", "10000" })
+	int videos;
+
+	@Param({ "true", "false" })
+	boolean signedBefore;
+
+	private final VideoServiceImpl videoService = new VideoServiceImpl();
+	private List<Video> list;
+
+	@Setup
+	public void setUp() throws Exception {
+		list = new ArrayList<Video>();
+		for (int i = 0; i < videos; i++) {
+			Video video = new Video();
+			video.setId("video-" + i);
+			video.setBucket("bucket");
+			video.setOriginalKey("uploads/video-" + i + ".mp4");
+			video.setPreviewKey("previews/video-" + i + ".mp4");
+			video.setThumbnailKey("thumbnails/video-" + i + ".png");
+			list.add(video);
+		}
+		newUrlCache();
+	}
+
+	@Setup(Level.Invocation)
+	public void forgetUrls() throws Exception {
+		if (!signedBefore) {
+			newUrlCache();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		videoService.shutdown();
+	}
+
+	@Benchmark
+	public List<VideoView> signingPool() {
+		return videoService.generateExpiringUrls(list, LIFETIME_MILLIS);
+	}
+
+	@Benchmark
+	public List<VideoView> requestThread() {
+		List<VideoView> views = new ArrayList<VideoView>(list.size());
+		for (Video video : list) {
+			views.add(videoService.generateExpiringUrl(video, LIFETIME_MILLIS));
+		}
+		return views;
+	}
+
+	private void newUrlCache() throws Exception {
+		StaticCredentialsProvider credentials = new StaticCredentialsProvider(new BasicAWSCredentials("KEY", "secret"));
+		PresignedUrlCache urls = new PresignedUrlCache();
+		ReflectionTestUtils.setField(urls, "credentials", credentials);
+		ReflectionTestUtils.setField(urls, "s3Client", new AmazonS3Client(credentials));
+		ReflectionTestUtils.setField(urls, "config", new TestConfigurationSettings());
+		videoService.presignedUrls = urls;
+		if (signedBefore) {
+			requestThread();
+		}
+	}
+
+	/**
+	 * Takes the usual JMH options, e.g. -p videos=24.
+	 */
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+		                               .include(ExpiringUrlsBenchmark.class.getSimpleName())
+		                               .build()).run();
+	}
+}
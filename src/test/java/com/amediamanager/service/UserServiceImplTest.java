@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.amediamanager.cache.LocalInvalidationChannel;
+import com.amediamanager.config.TestConfigurationSettings;
+import com.amediamanager.dao.DynamoDbUserDaoImpl;
+import com.amediamanager.domain.User;
+import com.amediamanager.exceptions.DataSourceTableDoesNotExistException;
+import com.amediamanager.exceptions.UserDoesNotExistException;
+import com.amediamanager.exceptions.UserExistsException;
+import com.amediamanager.exceptions.UserModifiedException;
+
+public class UserServiceImplTest {
+	private FakeUserDao userDao;
+	private SharedInvalidationChannel channel;
+	private UserServiceImpl userService;
+
+	@Before
+	public void setUp() throws Exception {
+		userDao = new FakeUserDao();
+		channel = new SharedInvalidationChannel();
+		userService = newUserService();
+		userDao.users.put("a@example.com", user("a@example.com", "Alice", 1L));
+	}
+
+	@Test
+	public void usersAreCached() {
+		User first = userService.find("a@example.com");
+		User second = userService.find("a@example.com");
+
+		assertEquals("Alice", second.getNickname());
+		assertEquals(1, userDao.finds.get());
+		// Callers may modify what they get
+		assertNotSame(first, second);
+	}
+
+	@Test
+	public void missingUsersAreCachedUntilSaved() throws Exception {
+		assertNull(userService.find("b@example.com"));
+		assertNull(userService.find("b@example.com"));
+		assertEquals(1, userDao.finds.get());
+
+		userService.save(user("b@example.com", "Bob", null));
+
+		assertEquals("Bob", userService.find("b@example.com").getNickname());
+	}
+
+	@Test
+	public void failedLookupsAreNotCached() {
+		userDao.failure = new DataSourceTableDoesNotExistException("users");
+		try {
+			userService.find("a@example.com");
+			fail();
+		} catch (DataSourceTableDoesNotExistException expected) {
+		}
+		userDao.failure = null;
+
+		assertEquals("Alice", userService.find("a@example.com").getNickname());
+		assertEquals(2, userDao.finds.get());
+	}
+
+	@Test
+	public void updateInvalidatesThisAndOtherInstances() throws Exception {
+		UserServiceImpl other = newUserService();
+		userService.find("a@example.com");
+		other.find("a@example.com");
+
+		User changed = userService.find("a@example.com");
+		changed.setNickname("Al");
+		userService.update(changed);
+
+		assertEquals("Al", userService.find("a@example.com").getNickname());
+		assertEquals("Al", other.find("a@example.com").getNickname());
+	}
+
+	@Test
+	public void failedUpdateStillInvalidates() throws Exception {
+		userService.find("a@example.com");
+		userDao.users.put("a@example.com", user("a@example.com", "Changed elsewhere", 2L));
+
+		try {
+			userService.update(user("gone@example.com", "Nobody", 1L));
+		} catch (UserDoesNotExistException expected) {
+		}
+		try {
+			userService.update(user("a@example.com", "Stale", 1L));
+		} catch (UserModifiedException expected) {
+		}
+
+		assertEquals("Changed elsewhere", userService.find("a@example.com").getNickname());
+	}
+
+	@Test(expected = UserModifiedException.class)
+	public void updateWithoutVersionOfVersionedUserIsRejected() {
+		userService.update(user("a@example.com", "Al", null));
+	}
+
+	@Test
+	public void updateWithoutVersionOfUserWrittenBeforeVersioning() {
+		userDao.users.put("a@example.com", user("a@example.com", "Alice", null));
+
+		User updated = userService.update(user("a@example.com", "Al", null));
+
+		assertEquals(Long.valueOf(1), updated.getVersion());
+	}
+
+	@Test
+	public void invalidationsFromOtherInstancesAreApplied() {
+		userService.find("a@example.com");
+		userDao.users.put("a@example.com", user("a@example.com", "Changed elsewhere", 2L));
+
+		channel.deliver("user-a@example.com");
+
+		assertEquals("Changed elsewhere", userService.find("a@example.com").getNickname());
+	}
+
+	private UserServiceImpl newUserService() throws Exception {
+		UserServiceImpl service = new UserServiceImpl();
+		ReflectionTestUtils.setField(service, "userDao", userDao);
+		ReflectionTestUtils.setField(service, "configurationSettings", new TestConfigurationSettings());
+		ReflectionTestUtils.setField(service, "invalidationChannel", channel);
+		service.subscribe();
+		return service;
+	}
+
+	private static User user(String email, String nickname, Long version) {
+		User user = new User();
+		user.setEmail(email);
+		user.setNickname(nickname);
+		user.setPassword("password");
+		user.setVersion(version);
+		return user;
+	}
+
+	/** Delivers published keys to every service subscribed to it */
+	static class SharedInvalidationChannel extends LocalInvalidationChannel {
+		@Override
+		public void publish(String key) {
+			deliver(key);
+		}
+	}
+
+	/** Users in a map, with DynamoDB's conditional writes */
+	static class FakeUserDao extends DynamoDbUserDaoImpl {
+		final Map<String, User> users = new ConcurrentHashMap<String, User>();
+		final AtomicInteger finds = new AtomicInteger();
+		volatile RuntimeException failure;
+
+		@Override
+		public synchronized void save(User user) throws UserExistsException {
+			if (users.containsKey(user.getEmail())) {
+				throw new UserExistsException();
+			}
+			users.put(user.getEmail(), user);
+		}
+
+		@Override
+		public synchronized User update(User user) {
+			User stored = users.get(user.getEmail());
+			if (stored == null) {
+				throw new UserDoesNotExistException();
+			}
+			Long version = stored.getVersion();
+			if (version == null ? user.getVersion() != null : !version.equals(user.getVersion())) {
+				throw new UserModifiedException();
+			}
+			User updated = new User();
+			updated.setEmail(user.getEmail());
+			updated.setNickname(user.getNickname());
+			updated.setPassword(user.getPassword());
+			updated.setVersion(version == null ? 1 : version + 1);
+			users.put(user.getEmail(), updated);
+			return updated;
+		}
+
+		@Override
+		public User find(String email) {
+			finds.incrementAndGet();
+			if (failure != null) {
+				throw failure;
+			}
+			return users.get(email);
+		}
+	}
+}
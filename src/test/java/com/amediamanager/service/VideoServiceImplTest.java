@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.spy.memcached.MemcachedClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.internal.StaticCredentialsProvider;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amediamanager.cache.CacheRequest;
+import com.amediamanager.cache.LocalInvalidationChannel;
+import com.amediamanager.cache.MemcachedServer;
+import com.amediamanager.config.TestConfigurationSettings;
+import com.amediamanager.dao.TagCount;
+import com.amediamanager.dao.VideoCursor;
+import com.amediamanager.dao.VideoDao;
+import com.amediamanager.dao.VideoPage;
+import com.amediamanager.domain.Tag;
+import com.amediamanager.domain.Video;
+import com.amediamanager.domain.VideoView;
+import com.amediamanager.util.PresignedUrlCache;
+
+public class VideoServiceImplTest {
+	private static final long LIFETIME_MILLIS = 60 * 60 * 1000;
+
+	private final VideoServiceImpl videoService = new VideoServiceImpl();
+	private final FakeVideoDao videoDao = new FakeVideoDao();
+	private MemcachedServer server;
+	private MemcachedClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new MemcachedServer();
+		client = server.newClient();
+		videoService.cache = MemcachedServer.newCacheTemplate(client, new LocalInvalidationChannel());
+		videoService.config = new TestConfigurationSettings();
+		videoService.videoDao = videoDao;
+		videoService.tagsService = new NoTagsService();
+
+		StaticCredentialsProvider credentials = new StaticCredentialsProvider(new BasicAWSCredentials("KEY", "secret"));
+		PresignedUrlCache urls = new PresignedUrlCache();
+		ReflectionTestUtils.setField(urls, "credentials", credentials);
+		ReflectionTestUtils.setField(urls, "s3Client", new AmazonS3Client(credentials));
+		ReflectionTestUtils.setField(urls, "config", new TestConfigurationSettings());
+		videoService.presignedUrls = urls;
+	}
+
+	@After
+	public void tearDown() {
+		videoService.shutdown();
+		videoService.cache.shutdown();
+		client.shutdown(1, TimeUnit.SECONDS);
+		server.stop();
+	}
+
+	@Test
+	public void writeThroughCachesCopyOfSavedVideo() {
+		assertTrue(videoService.findByUserId(OWNER, null, 24).getVideos().isEmpty());
+		Video video = videos(1).get(0);
+		video.setTitle("Title");
+		video.setTags(new HashSet<Tag>(Arrays.asList(new Tag("cats"))));
+
+		videoService.save(video);
+		// The caller's object changes after the write
+		video.setTitle("Changed");
+		video.getTags().add(new Tag("dogs"));
+
+		List<Video> cached = videoService.findByUserId(OWNER, null, 24).getVideos();
+		assertEquals(1, videoDao.pageReads.get());
+		assertEquals(1, cached.size());
+		assertNotSame(video, cached.get(0));
+		assertEquals("Title", cached.get(0).getTitle());
+		assertEquals(1, cached.get(0).getTags().size());
+	}
+
+	@Test
+	public void expiringUrlsOfShortListKeepTheOrder() {
+		assertSignedInOrder(videos(3));
+	}
+
+	@Test
+	public void expiringUrlsOfPageKeepTheOrder() {
+		assertSignedInOrder(videos(24));
+	}
+
+	@Test
+	public void expiringUrlsOfLongListKeepTheOrder() {
+		assertSignedInOrder(videos(1001));
+	}
+
+	private void assertSignedInOrder(List<Video> videos) {
+		List<VideoView> views = videoService.generateExpiringUrls(videos, LIFETIME_MILLIS);
+
+		assertEquals(videos.size(), views.size());
+		for (int i = 0; i < videos.size(); i++) {
+			assertEquals(videos.get(i).getId(), views.get(i).getId());
+			assertTrue(views.get(i).getUrl().getPath().endsWith(videos.get(i).getOriginalKey()));
+		}
+	}
+
+	private static final String OWNER = "owner@example.com";
+
+	private static List<Video> videos(int count) {
+		List<Video> videos = new ArrayList<Video>();
+		for (int i = 0; i < count; i++) {
+			Video video = new Video();
+			video.setId("video-" + i);
+			video.setOwner(OWNER);
+			video.setUploadedDate(new Date(1000L * i));
+			video.setBucket("bucket");
+			video.setOriginalKey("uploads/video-" + i + ".mp4");
+			videos.add(video);
+		}
+		return videos;
+	}
+
+	/** Saves nothing; every listing is empty */
+	static class FakeVideoDao implements VideoDao {
+		final AtomicInteger pageReads = new AtomicInteger();
+
+		@Override
+		public Video save(Video video) {
+			return null;
+		}
+
+		@Override
+		public Video update(Video video) {
+			return null;
+		}
+
+		@Override
+		public Video delete(Video video) {
+			return null;
+		}
+
+		@Override
+		public VideoPage findByUserId(String userId, VideoCursor after, int limit) {
+			pageReads.incrementAndGet();
+			return new VideoPage(new ArrayList<Video>(), null);
+		}
+
+		@Override
+		public Video findByTranscodeJobId(String jobId) {
+			return null;
+		}
+
+		@Override
+		public Video findById(String id) {
+			return null;
+		}
+
+		@Override
+		public VideoPage findAllPublic(VideoCursor after, int limit) {
+			return new VideoPage(new ArrayList<Video>(), null);
+		}
+
+		@Override
+		public int bulkImport(Iterator<Video> videos, int chunkSize, ImportListener listener) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	static class NoTagsService implements TagsService {
+		@Override
+		public List<TagCount> getTagsForUser(String user) {
+			return new ArrayList<TagCount>();
+		}
+
+		@Override
+		public VideoPage getVideosForUserByTag(String user, String tagId, String cursor, int limit) {
+			return new VideoPage(new ArrayList<Video>(), null);
+		}
+
+		@Override
+		public PageData getPageDataForUserByTag(String user, String tagId, String cursor, int limit) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public CacheRequest<List<TagCount>> getTagsForUserRequest(String user) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void bustCacheForUser(String user) {
+		}
+
+		@Override
+		public void updateCachedTagCounts(String user, Collection<Tag> before, Collection<Tag> after) {
+		}
+	}
+}
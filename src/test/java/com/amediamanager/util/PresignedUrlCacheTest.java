@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Amazon Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.amediamanager.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
+import com.amediamanager.config.ConfigurationSettings.ConfigProps;
+import com.amediamanager.config.TestConfigurationSettings;
+
+public class PresignedUrlCacheTest {
+	private static final long LIFETIME_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	private static final Pattern EXPIRES = Pattern.compile("Expires=(\\d+)");
+
+	private final AtomicInteger signed = new AtomicInteger();
+	private volatile AWSCredentials currentCredentials = new BasicAWSCredentials("KEY1", "secret1");
+	private PresignedUrlCache urls;
+
+	@Before
+	public void setUp() throws Exception {
+		final AWSCredentialsProvider credentials = new AWSCredentialsProvider() {
+			@Override
+			public AWSCredentials getCredentials() {
+				return currentCredentials;
+			}
+
+			@Override
+			public void refresh() {
+			}
+		};
+		urls = new PresignedUrlCache();
+		urls.credentials = credentials;
+		urls.config = new TestConfigurationSettings().with(ConfigProps.PRESIGNED_URL_REUSE_FRACTION, "0.5");
+		urls.s3Client = new AmazonS3Client(credentials) {
+			@Override
+			public URL generatePresignedUrl(GeneratePresignedUrlRequest request) {
+				signed.incrementAndGet();
+				return super.generatePresignedUrl(request);
+			}
+		};
+	}
+
+	@Test
+	public void urlIsReusedWithinWindow() {
+		URL first = urls.get("bucket", "videos/a.mp4", LIFETIME_MILLIS);
+		URL second = urls.get("bucket", "videos/a.mp4", LIFETIME_MILLIS);
+
+		assertEquals(first, second);
+		assertEquals(1, signed.get());
+	}
+
+	@Test
+	public void urlIsValidForAtLeastTheLifetime() {
+		final long now = System.currentTimeMillis();
+		long expires = expiresMillis(urls.get("bucket", "videos/a.mp4", LIFETIME_MILLIS));
+
+		// At most one window (half the lifetime) more than asked for
+		assertTrue(expires >= now + LIFETIME_MILLIS);
+		assertTrue(expires <= now + LIFETIME_MILLIS + LIFETIME_MILLIS / 2 + 1000);
+	}
+
+	@Test
+	public void objectsAndLifetimesAreSignedSeparately() {
+		URL a = urls.get("bucket", "videos/a.mp4", LIFETIME_MILLIS);
+		URL b = urls.get("bucket", "videos/b.mp4", LIFETIME_MILLIS);
+		URL longer = urls.get("bucket", "videos/a.mp4", LIFETIME_MILLIS * 3);
+
+		assertFalse(a.equals(b));
+		assertFalse(a.equals(longer));
+		assertEquals(3, signed.get());
+	}
+
+	@Test
+	public void rotatedCredentialsAreUsed() {
+		URL before = urls.get("bucket", "videos/a.mp4", LIFETIME_MILLIS);
+		currentCredentials = new BasicAWSCredentials("KEY2", "secret2");
+		URL after = urls.get("bucket", "videos/a.mp4", LIFETIME_MILLIS);
+
+		assertTrue(before.getQuery().contains("KEY1"));
+		assertTrue(after.getQuery().contains("KEY2"));
+	}
+
+	@Test
+	public void invalidReuseFractionFallsBackToDefault() throws Exception {
+		urls.config = new TestConfigurationSettings().with(ConfigProps.PRESIGNED_URL_REUSE_FRACTION, "2");
+		final long now = System.currentTimeMillis();
+		long expires = expiresMillis(urls.get("bucket", "videos/a.mp4", LIFETIME_MILLIS));
+
+		// The default window is half the lifetime, not twice it
+		assertTrue(expires >= now + LIFETIME_MILLIS);
+		assertTrue(expires <= now + LIFETIME_MILLIS + LIFETIME_MILLIS / 2 + 1000);
+	}
+
+	private static long expiresMillis(URL url) {
+		Matcher expires = EXPIRES.matcher(url.getQuery());
+		assertTrue(url.toString(), expires.find());
+		return TimeUnit.SECONDS.toMillis(Long.parseLong(expires.group(1)));
+	}
+}